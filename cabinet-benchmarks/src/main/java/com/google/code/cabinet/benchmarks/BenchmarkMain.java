@@ -0,0 +1,44 @@
+/*
+  Copyright [2009] [allenhooo at gmail dot com]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.google.code.cabinet.benchmarks;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks like org.openjdk.jmh.Main, with the allocation profiler on unless
+ * other profilers are asked for, so gc.alloc.rate.norm shows the bytes allocated per
+ * operation next to every score.
+ */
+public class BenchmarkMain {
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions cmd = new CommandLineOptions(args);
+		if (cmd.shouldHelp() || cmd.shouldList() || cmd.shouldListWithParams()
+				|| cmd.shouldListProfilers() || cmd.shouldListResultFormats()) {
+			Main.main(args);
+			return;
+		}
+		ChainedOptionsBuilder options = new OptionsBuilder().parent(cmd);
+		if (cmd.getProfilers().isEmpty()) {
+			options.addProfiler(GCProfiler.class);
+		}
+		new Runner(options.build()).run();
+	}
+}
@@ -0,0 +1,71 @@
+/*
+  Copyright [2009] [allenhooo at gmail dot com]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.google.code.cabinet.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.google.code.cabinet.CabinetReader;
+
+/**
+ * The cab a benchmark works on: stored or MSZIP, few or many files, files smaller than a
+ * data block or straddling several. Narrow the matrix with -p, e.g. -p files=10.
+ */
+@State(Scope.Benchmark)
+public class CabParams {
+	@Param({ "stored", "mszip" })
+	public String compression;
+
+	@Param({ "10", "2000" })
+	public int files;
+
+	/** 600 bytes share a block, 50000 straddle two or three */
+	@Param({ "600", "50000" })
+	public int fileSize;
+
+	/**
+	 * Data blocks between decoder checkpoints of readers that read files. Without them a
+	 * file deep in an MSZIP folder is decoded from the first block of the folder.
+	 */
+	static final int CHECKPOINT_INTERVAL = 16;
+
+	public File cab;
+	public String[] names;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		cab = SyntheticCab.get(compression, files, fileSize);
+		names = new String[files];
+		for (int i = 0; i < files; i++) {
+			names[i] = SyntheticCab.name(i);
+		}
+	}
+
+	/**
+	 * @return a reader with checkpoints every {@link #CHECKPOINT_INTERVAL} blocks
+	 */
+	public CabinetReader openReader() throws IOException {
+		CabinetReader reader = new CabinetReader(cab);
+		reader.setCheckpointInterval(CHECKPOINT_INTERVAL);
+		return reader;
+	}
+}
@@ -0,0 +1,68 @@
+/*
+  Copyright [2009] [allenhooo at gmail dot com]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.google.code.cabinet.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.code.cabinet.CabinetReader;
+
+/**
+ * The cost of {@link CabinetReader#setVerifyChecksums(boolean)} on sequential reads.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChecksumBenchmark {
+	@Param({ "false", "true" })
+	public boolean verify;
+
+	private CabinetReader reader;
+	private final byte[] buffer = new byte[StreamBenchmark.BUFFER_SIZE];
+
+	@Setup(Level.Trial)
+	public void setUp(CabParams p) throws IOException {
+		reader = p.openReader();
+		reader.setVerifyChecksums(verify);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		reader.close();
+	}
+
+	@Benchmark
+	public long readAll(CabParams p) throws IOException {
+		return StreamBenchmark.readAll(reader, p.names, buffer);
+	}
+}
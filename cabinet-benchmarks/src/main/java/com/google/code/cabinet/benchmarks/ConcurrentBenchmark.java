@@ -0,0 +1,96 @@
+/*
+  Copyright [2009] [allenhooo at gmail dot com]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.google.code.cabinet.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.code.cabinet.CabinetReader;
+
+/**
+ * Threads reading files of one shared reader. Compare the throughput of one thread with
+ * that of four to see how reads scale; the block cache lets streams share decoded blocks.
+ * The files are in a single folder, {@link FolderBenchmark} has threads reading different folders.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConcurrentBenchmark {
+	/** capacity of the block cache in bytes, 0 for none */
+	@Param({ "0", "8388608" })
+	public long blockCache;
+
+	private CabinetReader reader;
+
+	@State(Scope.Thread)
+	public static class Cursor {
+		final byte[] buffer = new byte[StreamBenchmark.BUFFER_SIZE];
+		int next = -1;
+	}
+
+	@Setup(Level.Trial)
+	public void setUp(CabParams p) throws IOException {
+		reader = p.openReader();
+		reader.setBlockCacheSize(blockCache);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		reader.close();
+	}
+
+	@Benchmark
+	@Threads(1)
+	public long oneThread(CabParams p, Cursor c) throws IOException {
+		return readNext(p, c);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public long fourThreads(CabParams p, Cursor c) throws IOException {
+		return readNext(p, c);
+	}
+
+	/**
+	 * Read the next file; threads start at different files.
+	 */
+	private long readNext(CabParams p, Cursor c) throws IOException {
+		if (c.next < 0) {
+			c.next = (int) (Thread.currentThread().getId() * 7919 % p.names.length);
+		}
+		String name = p.names[c.next];
+		c.next = (c.next + 1) % p.names.length;
+		return StreamBenchmark.readFile(reader, name, c.buffer);
+	}
+}
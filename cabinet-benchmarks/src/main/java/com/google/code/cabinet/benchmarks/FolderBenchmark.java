@@ -0,0 +1,165 @@
+/*
+  Copyright [2009] [allenhooo at gmail dot com]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.google.code.cabinet.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.code.cabinet.CabinetExtractResult;
+import com.google.code.cabinet.CabinetReader;
+
+/**
+ * Reading the different folders of one cab at the same time. Every folder is a compression
+ * stream of its own, so threads on different folders share nothing but the reader.<p>
+ * oneThread and fourThreads read whole folders with {@link com.google.code.cabinet.CabinetFolderInputStream},
+ * each thread starting at another folder; compare their throughput to see how reads scale.
+ * extractAll times {@link CabinetReader#extractAll(File, java.util.concurrent.Executor)} on a pool
+ * of one thread and of four; set the pool to the cores of the machine with -p threads=N.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FolderBenchmark {
+	private static final int FILES = 64;
+	/** 8M in all, four blocks a file */
+	private static final int FILE_SIZE = 1 << 17;
+
+	@Param({ "stored", "mszip" })
+	public String compression;
+
+	@Param({ "8" })
+	public int folders;
+
+	private File cab;
+	private CabinetReader reader;
+
+	@State(Scope.Thread)
+	public static class Cursor {
+		final byte[] buffer = new byte[StreamBenchmark.BUFFER_SIZE];
+		int next = -1;
+	}
+
+	/**
+	 * A pool for extractAll and the directory it extracts to.
+	 */
+	@State(Scope.Benchmark)
+	public static class Pool {
+		@Param({ "1", "4" })
+		public int threads;
+
+		ExecutorService executor;
+		File target;
+
+		@Setup(Level.Trial)
+		public void setUp() throws IOException {
+			executor = Executors.newFixedThreadPool(threads);
+			target = File.createTempFile("extract", "");
+			if (!target.delete() || !target.mkdir()) {
+				throw new IOException("Cannot create " + target);
+			}
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() {
+			executor.shutdown();
+			delete(target);
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		cab = SyntheticCab.get(compression, FILES, FILE_SIZE, folders);
+		reader = new CabinetReader(cab);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		reader.close();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@Threads(1)
+	public long oneThread(Cursor c) throws IOException {
+		return readNext(c);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@Threads(4)
+	public long fourThreads(Cursor c) throws IOException {
+		return readNext(c);
+	}
+
+	/**
+	 * Every file of the cab below a directory, one task per folder.
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public long extractAll(Pool pool) throws IOException, InterruptedException {
+		long total = 0;
+		for (CabinetExtractResult r : reader.extractAll(pool.target, pool.executor)) {
+			if (!r.isSuccess()) {
+				throw r.getException();
+			}
+			total += r.getSize();
+		}
+		return total;
+	}
+
+	/**
+	 * Read the next folder; threads start at different folders.
+	 */
+	private long readNext(Cursor c) throws IOException {
+		if (c.next < 0) {
+			c.next = (int) (Thread.currentThread().getId() % folders);
+		}
+		int folder = c.next;
+		c.next = (c.next + 1) % folders;
+		return StreamBenchmark.readFolder(reader, folder, c.buffer);
+	}
+
+	private static void delete(File f) {
+		File[] children = f.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		f.delete();
+	}
+}
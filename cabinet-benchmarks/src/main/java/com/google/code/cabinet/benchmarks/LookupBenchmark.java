@@ -0,0 +1,92 @@
+/*
+  Copyright [2009] [allenhooo at gmail dot com]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.google.code.cabinet.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.code.cabinet.CabinetReader;
+
+/**
+ * Opening a stream by name on an open reader, without reading from it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LookupBenchmark {
+	private CabinetReader reader;
+	/** matches names regardless of case and separator */
+	private CabinetReader looseReader;
+	/** the names with '/' and in upper case */
+	private String[] looseNames;
+	private int next = 0;
+
+	@Setup(Level.Trial)
+	public void setUp(CabParams p) throws IOException {
+		reader = new CabinetReader(p.cab);
+		looseReader = new CabinetReader(p.cab);
+		looseReader.setIgnoreCase(true);
+		looseReader.setNormalizeSeparators(true);
+		looseNames = new String[p.names.length];
+		for (int i = 0; i < looseNames.length; i++) {
+			looseNames[i] = p.names[i].replace('\\', '/').toUpperCase();
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		reader.close();
+		looseReader.close();
+	}
+
+	@Benchmark
+	public InputStream getFileInputStream(CabParams p) throws IOException {
+		String name = p.names[next];
+		next = (next + 1) % p.names.length;
+		InputStream in = reader.getFileInputStream(name);
+		in.close();
+		return in;
+	}
+
+	/**
+	 * See {@link CabinetReader#setIgnoreCase(boolean)} and {@link CabinetReader#setNormalizeSeparators(boolean)}.
+	 */
+	@Benchmark
+	public InputStream getFileInputStreamIgnoreCase() throws IOException {
+		String name = looseNames[next];
+		next = (next + 1) % looseNames.length;
+		InputStream in = looseReader.getFileInputStream(name);
+		in.close();
+		return in;
+	}
+}
@@ -0,0 +1,77 @@
+/*
+  Copyright [2009] [allenhooo at gmail dot com]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.google.code.cabinet.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.code.cabinet.CabinetDirectory;
+import com.google.code.cabinet.CabinetReader;
+
+/**
+ * Opening a cab and listing its files.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OpenBenchmark {
+	private final CabinetDirectory directory = new CabinetDirectory();
+
+	/**
+	 * Constructor latency: header, folder and file tables.
+	 */
+	@Benchmark
+	public int open(CabParams p) throws IOException {
+		CabinetReader reader = new CabinetReader(p.cab);
+		int n = reader.getFolderCount();
+		reader.close();
+		return n;
+	}
+
+	@Benchmark
+	public String[] getFileNames(CabParams p) throws IOException {
+		CabinetReader reader = new CabinetReader(p.cab);
+		String[] names = reader.getFileNames();
+		reader.close();
+		return names;
+	}
+
+	/**
+	 * Listing with a reused {@link CabinetDirectory}, names left undecoded.
+	 */
+	@Benchmark
+	public long directory(CabParams p) throws IOException {
+		directory.read(p.cab);
+		long size = 0;
+		for (int i = 0; i < directory.size(); i++) {
+			size += directory.getSize(i);
+		}
+		return size;
+	}
+}
@@ -0,0 +1,195 @@
+/*
+  Copyright [2009] [allenhooo at gmail dot com]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.google.code.cabinet.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.code.cabinet.CabinetFolderInputStream;
+import com.google.code.cabinet.CabinetInputStream;
+import com.google.code.cabinet.CabinetReader;
+
+/**
+ * Reading packed files through {@link CabinetReader#getFileInputStream(String)}.
+ * The reader keeps decoder checkpoints, see {@link CabParams#openReader()}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StreamBenchmark {
+	static final int BUFFER_SIZE = 8192;
+	/** reads of a file in the seek benchmarks, back to front */
+	static final int SEEKS = 8;
+
+	private CabinetReader reader;
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+	private final ByteBuffer direct = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	private int next = 0;
+
+	@Setup(Level.Trial)
+	public void setUp(CabParams p) throws IOException {
+		reader = p.openReader();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		reader.close();
+	}
+
+	/**
+	 * Sequential throughput: every file in order with an 8K buffer.
+	 */
+	@Benchmark
+	public long readAll(CabParams p) throws IOException {
+		return readAll(reader, p.names, buffer);
+	}
+
+	/**
+	 * Sequential throughput of a single pass: every folder with {@link CabinetFolderInputStream}.
+	 */
+	@Benchmark
+	public long readFolders() throws IOException {
+		long total = 0;
+		for (int i = 0; i < reader.getFolderCount(); i++) {
+			total += readFolder(reader, i, buffer);
+		}
+		return total;
+	}
+
+	/**
+	 * Read every file of a folder with {@link CabinetFolderInputStream}.
+	 */
+	static long readFolder(CabinetReader reader, int folder, byte[] buffer) throws IOException {
+		CabinetFolderInputStream in = reader.getFolderInputStream(folder);
+		long total = 0;
+		while (in.getNextEntry() != null) {
+			int n;
+			while ((n = in.read(buffer, 0, buffer.length)) > 0) {
+				total += n;
+			}
+		}
+		in.close();
+		return total;
+	}
+
+	static long readAll(CabinetReader reader, String[] names, byte[] buffer) throws IOException {
+		long total = 0;
+		for (int i = 0; i < names.length; i++) {
+			total += readFile(reader, names[i], buffer);
+		}
+		return total;
+	}
+
+	static long readFile(CabinetReader reader, String name, byte[] buffer) throws IOException {
+		InputStream in = reader.getFileInputStream(name);
+		long total = 0;
+		int n;
+		while ((n = in.read(buffer, 0, buffer.length)) > 0) {
+			total += n;
+		}
+		in.close();
+		return total;
+	}
+
+	/**
+	 * One file a byte at a time with read().
+	 */
+	@Benchmark
+	public long readByte(CabParams p) throws IOException {
+		InputStream in = reader.getFileInputStream(nextName(p));
+		long sum = 0;
+		int b;
+		while ((b = in.read()) >= 0) {
+			sum += b;
+		}
+		in.close();
+		return sum;
+	}
+
+	/**
+	 * One file skipped to the end in steps of 4K.
+	 */
+	@Benchmark
+	public long skip(CabParams p) throws IOException {
+		InputStream in = reader.getFileInputStream(nextName(p));
+		long total = 0;
+		long n;
+		while ((n = in.skip(4096)) > 0) {
+			total += n;
+		}
+		in.close();
+		return total;
+	}
+
+	/**
+	 * One file read at {@link #SEEKS} positions from the end to the start through
+	 * {@link CabinetReader#getFileChannel(String)}, into a direct buffer.
+	 */
+	@Benchmark
+	public long seekChannel(CabParams p) throws IOException {
+		SeekableByteChannel ch = reader.getFileChannel(nextName(p));
+		long total = 0;
+		long size = ch.size();
+		for (int i = SEEKS - 1; i >= 0; i--) {
+			direct.clear();
+			ch.position(size * i / SEEKS);
+			total += Math.max(0, ch.read(direct));
+		}
+		ch.close();
+		return total;
+	}
+
+	/**
+	 * The reads of {@link #seekChannel(CabParams)} with {@link CabinetInputStream#seek(long)}, into a byte[].
+	 */
+	@Benchmark
+	public long seekStream(CabParams p) throws IOException {
+		CabinetInputStream in = (CabinetInputStream) reader.getFileInputStream(nextName(p));
+		long total = 0;
+		long size = in.size();
+		for (int i = SEEKS - 1; i >= 0; i--) {
+			in.seek(size * i / SEEKS);
+			total += Math.max(0, in.read(buffer, 0, buffer.length));
+		}
+		in.close();
+		return total;
+	}
+
+	private String nextName(CabParams p) {
+		String name = p.names[next];
+		next = (next + 1) % p.names.length;
+		return name;
+	}
+}
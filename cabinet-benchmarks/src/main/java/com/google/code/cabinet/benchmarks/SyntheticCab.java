@@ -0,0 +1,269 @@
+/*
+  Copyright [2009] [allenhooo at gmail dot com]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.google.code.cabinet.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+/**
+ * Writes cabs with stored or MSZIP folders for the benchmarks.<p>
+ * The files hold pseudo-random words, which MSZIP packs to about a third. Every file
+ * has the same size, so small files share data blocks and large ones straddle them.
+ * The files are shared out in order among the folders.
+ * Cabs are written once to a directory below java.io.tmpdir and reused by later runs.
+ */
+public final class SyntheticCab {
+	/** uncompressed size of a data block */
+	static final int BLOCK_SIZE = 0x8000;
+	private static final int TYPE_NONE = 0;
+	private static final int TYPE_MSZIP = 1;
+	/** size of CFHEADER without the optional fields */
+	private static final int HEADER_SIZE = 36;
+	/** size of a CFFOLDER entry without the reserved area */
+	private static final int FOLDER_SIZE = 8;
+
+	private static final String[] WORDS = { "cabinet", "folder", "data", "block", "file", "stream",
+			"header", "reserve", "offset", "size", "name", "date", "time", "attribute", "checksum",
+			"compress", "mszip", "quantum", "lzx", "window", "history", "tree", "length", "distance",
+			"0", "1", "2", "3", "4", "5", "6", "7", "8", "9", ",", ".", "\r\n" };
+
+	private SyntheticCab() {
+	}
+
+	/**
+	 * @param compression "stored" or "mszip"
+	 * @param files number of files
+	 * @param fileSize size of every file
+	 * @return the cab with a single folder, written now unless an earlier run did
+	 */
+	public static File get(String compression, int files, int fileSize) throws IOException {
+		return get(compression, files, fileSize, 1);
+	}
+
+	/**
+	 * @param compression "stored" or "mszip"
+	 * @param files number of files
+	 * @param fileSize size of every file
+	 * @param folders number of folders, 1 to files
+	 * @return the cab, written now unless an earlier run did
+	 */
+	public static File get(String compression, int files, int fileSize, int folders) throws IOException {
+		int type;
+		if ("stored".equals(compression)) {
+			type = TYPE_NONE;
+		} else if ("mszip".equals(compression)) {
+			type = TYPE_MSZIP;
+		} else {
+			throw new IllegalArgumentException("unknown compression " + compression);
+		}
+		File dir = new File(System.getProperty("java.io.tmpdir"), "cabinet-benchmarks");
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Cannot create " + dir);
+		}
+		if (folders < 1 || folders > files) {
+			throw new IllegalArgumentException("folders must be 1 to " + files);
+		}
+		File cab = new File(dir, compression + "-" + files + "x" + fileSize
+				+ (folders == 1 ? "" : "-" + folders + "folders") + ".cab");
+		if (!cab.isFile()) {
+			File tmp = File.createTempFile("synthetic", ".tmp", dir);
+			try {
+				write(tmp, type, files, fileSize, folders);
+				if (!tmp.renameTo(cab) && !cab.isFile()) {
+					throw new IOException("Cannot create " + cab);
+				}
+			} finally {
+				tmp.delete();
+			}
+		}
+		return cab;
+	}
+
+	/**
+	 * @return name of the i-th file, spread over 16 directories
+	 */
+	public static String name(int i) {
+		return "dir" + (i % 16) + "\\file" + i + ".txt";
+	}
+
+	private static void write(File f, int type, int files, int fileSize, int folders) throws IOException {
+		// files first[k] to first[k + 1] - 1 are in folder k
+		int[] first = new int[folders + 1];
+		long[] totals = new long[folders];
+		int[] blocks = new int[folders];
+		for (int k = 0; k <= folders; k++) {
+			first[k] = (int) ((long) files * k / folders);
+		}
+		for (int k = 0; k < folders; k++) {
+			totals[k] = (long) (first[k + 1] - first[k]) * fileSize;
+			blocks[k] = (int) ((totals[k] + BLOCK_SIZE - 1) / BLOCK_SIZE);
+			if (blocks[k] > 0xFFFF || totals[k] > 0x7FFF8000L) {
+				throw new IllegalArgumentException("too much data for one folder");
+			}
+		}
+		byte[][] names = new byte[files][];
+		int coffFiles = HEADER_SIZE + FOLDER_SIZE * folders;
+		int dataStart = coffFiles;
+		for (int i = 0; i < files; i++) {
+			names[i] = name(i).getBytes("US-ASCII");
+			dataStart += 16 + names[i].length + 1;
+		}
+
+		ByteBuffer head = ByteBuffer.allocate(dataStart).order(ByteOrder.LITTLE_ENDIAN);
+		head.putInt(0x4643534D);
+		head.putInt(0);
+		head.putInt(0); // cbCabinet, patched at the end
+		head.putInt(0);
+		head.putInt(coffFiles);
+		head.putInt(0);
+		head.put((byte) 3).put((byte) 1);
+		head.putShort((short) folders);
+		head.putShort((short) files);
+		head.putShort((short) 0);
+		head.putShort((short) 0x4342);
+		head.putShort((short) 0);
+		for (int k = 0; k < folders; k++) {
+			head.putInt(0); // coffCabStart, patched at the end
+			head.putShort((short) blocks[k]);
+			head.putShort((short) type);
+		}
+		for (int k = 0; k < folders; k++) {
+			for (int i = first[k]; i < first[k + 1]; i++) {
+				head.putInt(fileSize);
+				head.putInt((i - first[k]) * fileSize);
+				head.putShort((short) k);
+				head.putShort((short) 0x3C21); // 2010-01-01
+				head.putShort((short) 0x6000); // 12:00
+				head.putShort((short) 0x20);
+				head.put(names[i]).put((byte) 0);
+			}
+		}
+
+		RandomAccessFile out = new RandomAccessFile(f, "rw");
+		try {
+			out.setLength(0);
+			out.write(head.array());
+			Random random = new Random(files * 31L + fileSize);
+			Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+			byte[] block = new byte[BLOCK_SIZE];
+			byte[] previous = null;
+			byte[] packed = new byte[BLOCK_SIZE * 2];
+			ByteBuffer data = ByteBuffer.allocate(8 + packed.length).order(ByteOrder.LITTLE_ENDIAN);
+			long[] starts = new long[folders];
+			for (int k = 0; k < folders; k++) {
+				starts[k] = out.getFilePointer();
+				// a folder is a compression stream of its own, its first block has no history
+				previous = null;
+				for (long done = 0; done < totals[k];) {
+					int n = (int) Math.min(BLOCK_SIZE, totals[k] - done);
+					fill(random, block, n);
+					done += n;
+					int cbData;
+					if (type == TYPE_NONE) {
+						System.arraycopy(block, 0, packed, 0, n);
+						cbData = n;
+					} else {
+						// MSZIP blocks may refer back to the block before
+						deflater.reset();
+						if (previous != null) {
+							deflater.setDictionary(previous);
+						}
+						deflater.setInput(block, 0, n);
+						deflater.finish();
+						packed[0] = 'C';
+						packed[1] = 'K';
+						cbData = 2;
+						while (!deflater.finished()) {
+							cbData += deflater.deflate(packed, cbData, packed.length - cbData);
+						}
+						if (previous == null) {
+							previous = new byte[BLOCK_SIZE];
+						}
+						System.arraycopy(block, 0, previous, 0, BLOCK_SIZE);
+					}
+					data.clear();
+					data.putInt(checksum(packed, cbData) ^ (cbData | n << 16));
+					data.putShort((short) cbData);
+					data.putShort((short) n);
+					data.put(packed, 0, cbData);
+					out.write(data.array(), 0, data.position());
+				}
+			}
+			deflater.end();
+			patch(out, 8, out.length());
+			for (int k = 0; k < folders; k++) {
+				patch(out, HEADER_SIZE + FOLDER_SIZE * k, starts[k]);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Overwrite the 4 byte field at position with value.
+	 */
+	private static void patch(RandomAccessFile out, long position, long value) throws IOException {
+		out.seek(position);
+		out.write(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt((int) value).array());
+	}
+
+	/**
+	 * @return length bytes of random words, the content of the generated files
+	 */
+	static byte[] words(long seed, int length) {
+		byte[] b = new byte[length];
+		fill(new Random(seed), b, length);
+		return b;
+	}
+
+	/**
+	 * Fill b with random words, a line break now and then.
+	 */
+	private static void fill(Random random, byte[] b, int length) {
+		int i = 0;
+		while (i < length) {
+			String w = WORDS[random.nextInt(WORDS.length)];
+			for (int k = 0; k < w.length() && i < length; k++) {
+				b[i++] = (byte) w.charAt(k);
+			}
+			if (i < length) {
+				b[i++] = ' ';
+			}
+		}
+	}
+
+	/**
+	 * The CFDATA checksum of the packed bytes, before the sizes are mixed in.
+	 */
+	private static int checksum(byte[] b, int length) {
+		ByteBuffer le = ByteBuffer.wrap(b, 0, length).order(ByteOrder.LITTLE_ENDIAN);
+		int sum = 0;
+		int i = 0;
+		for (; i + 4 <= length; i += 4) {
+			sum ^= le.getInt(i);
+		}
+		int ul = 0;
+		for (; i < length; i++) {
+			ul = ul << 8 | (b[i] & 0xFF);
+		}
+		return sum ^ ul;
+	}
+}
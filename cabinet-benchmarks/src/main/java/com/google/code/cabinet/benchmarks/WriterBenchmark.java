@@ -0,0 +1,94 @@
+/*
+  Copyright [2009] [allenhooo at gmail dot com]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.google.code.cabinet.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.code.cabinet.CabinetWriter;
+
+/**
+ * Packing 16 files of 1M with {@link CabinetWriter}, the blocks compressed by the calling
+ * thread or by a pool of threads.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WriterBenchmark {
+	private static final int FILES = 16;
+	private static final int FILE_SIZE = 1 << 20;
+
+	@Param({ "stored", "mszip" })
+	public String compression;
+
+	/** threads compressing blocks, 0 for the calling thread */
+	@Param({ "0", "4" })
+	public int threads;
+
+	private ExecutorService executor;
+	private byte[][] content;
+	private File cab;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		executor = threads == 0 ? null : Executors.newFixedThreadPool(threads);
+		content = new byte[FILES][];
+		for (int i = 0; i < FILES; i++) {
+			content[i] = SyntheticCab.words(i, FILE_SIZE);
+		}
+		cab = File.createTempFile("writer", ".cab");
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		if (executor != null) {
+			executor.shutdown();
+		}
+		cab.delete();
+	}
+
+	@Benchmark
+	public long write() throws IOException {
+		CabinetWriter writer = new CabinetWriter(cab, executor);
+		writer.setCompression("stored".equals(compression) ? CabinetWriter.STORED : CabinetWriter.MSZIP);
+		for (int i = 0; i < FILES; i++) {
+			writer.putNextEntry(SyntheticCab.name(i));
+			writer.write(content[i]);
+		}
+		writer.close();
+		return cab.length();
+	}
+}
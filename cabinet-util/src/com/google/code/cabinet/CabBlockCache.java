@@ -0,0 +1,124 @@
+/*
+  Copyright [2009] [allenhooo at gmail dot com]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.google.code.cabinet;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Uncompressed data blocks of a cab, least recently used blocks are evicted first.<p>
+ * One cache is shared by all streams of a reader and keyed by folder and block index.
+ * Lookups are short and decompression happens outside the lock, so a single lock is enough.
+ * Cached arrays are never modified. See {@link CabDirectBlockCache} for blocks kept out of the heap.
+ */
+class CabBlockCache {
+	/** maximum number of cached bytes */
+	final long capacity;
+	long size = 0;
+	long hits = 0;
+	long misses = 0;
+	private final LinkedHashMap<Long, byte[]> blocks = new LinkedHashMap<Long, byte[]>(16, 0.75f, true);
+
+	CabBlockCache(long capacity) {
+		this.capacity = capacity;
+	}
+
+	static Long key(CabFolder folder, int blockIndex) {
+		return Long.valueOf(((long) folder.index << 32) | (blockIndex & 0xFFFFFFFFL));
+	}
+
+	/**
+	 * @return true if cached blocks are copied into the buffer passed to {@link #get}
+	 */
+	boolean isDirect() {
+		return false;
+	}
+
+	/**
+	 * Look a block up and count the hit or miss.
+	 * @param buffer receives the block if {@link #isDirect()}, unused otherwise
+	 * @return the uncompressed block with position 0, null if not cached
+	 */
+	synchronized ByteBuffer get(CabFolder folder, int blockIndex, ByteBuffer buffer) {
+		byte[] block = blocks.get(key(folder, blockIndex));
+		if (block == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return ByteBuffer.wrap(block);
+	}
+
+	/**
+	 * Copy a block into dst without counting, for blocks the caller may do without.
+	 * @param dst cleared, filled and flipped when the block is cached
+	 * @return false if the block is not cached
+	 */
+	synchronized boolean peek(CabFolder folder, int blockIndex, ByteBuffer dst) {
+		byte[] block = blocks.get(key(folder, blockIndex));
+		if (block == null) {
+			return false;
+		}
+		dst.clear();
+		dst.put(block);
+		dst.flip();
+		return true;
+	}
+
+	/**
+	 * Cache a copy of an uncompressed block, evicting the least recently used blocks when full.
+	 */
+	synchronized void put(CabFolder folder, int blockIndex, byte[] b, int length) {
+		Long key = key(folder, blockIndex);
+		if (length > capacity || blocks.containsKey(key)) {
+			return;
+		}
+		byte[] block = new byte[length];
+		System.arraycopy(b, 0, block, 0, length);
+		blocks.put(key, block);
+		size += length;
+		for (Iterator<Map.Entry<Long, byte[]>> i = blocks.entrySet().iterator(); size > capacity && i.hasNext();) {
+			size -= i.next().getValue().length;
+			i.remove();
+		}
+	}
+
+	/**
+	 * Drop all blocks, the cache stays usable.
+	 */
+	synchronized void release() {
+		blocks.clear();
+		size = 0;
+	}
+
+	long getCapacity() {
+		return capacity;
+	}
+
+	synchronized long getSize() {
+		return size;
+	}
+
+	synchronized long getHits() {
+		return hits;
+	}
+
+	synchronized long getMisses() {
+		return misses;
+	}
+}
@@ -0,0 +1,114 @@
+/*
+  Copyright [2009] [allenhooo at gmail dot com]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.google.code.cabinet;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The compressed bytes of a folder's data blocks as one continuous input.<p>
+ * LZX and Quantum bit streams are not restarted at block boundaries, their decoders
+ * read through this class instead of block by block.
+ */
+class CabBlockInput {
+	private final CabFolder folder;
+	/** append a 0xFF byte to every block, Quantum decoders use it to realign themselves */
+	private final boolean trailer;
+
+	/** compressed bytes of the current block */
+	private ByteBuffer block;
+	private ByteBuffer scratch;
+	/** index of the next block to load */
+	private int next = 0;
+	private boolean trailerPending = false;
+
+	CabBlockInput(CabFolder folder, boolean trailer) {
+		this.folder = folder;
+		this.trailer = trailer;
+	}
+
+	/**
+	 * Start over at the first block of the folder.
+	 */
+	void reset() {
+		block = null;
+		next = 0;
+		trailerPending = false;
+	}
+
+	/**
+	 * @return the next byte, -1 after the last block of the folder
+	 */
+	int read() throws IOException {
+		for (;;) {
+			if (block != null && block.hasRemaining()) {
+				return block.get() & 0xFF;
+			}
+			if (trailerPending) {
+				trailerPending = false;
+				return 0xFF;
+			}
+			if (next >= folder.cCFData) {
+				return -1;
+			}
+			block = load(next++);
+			trailerPending = trailer;
+		}
+	}
+
+	private ByteBuffer load(int index) throws IOException {
+		CabData data = folder.cabData[index];
+		if (scratch == null || scratch.capacity() < data.cbData) {
+			scratch = ByteBuffer.allocate(Math.max(data.cbData, 0x8000));
+		}
+		return folder.read(index, scratch);
+	}
+
+	/**
+	 * @return the current read position, to return to with {@link #seek(Position)}
+	 */
+	Position position() {
+		return new Position(next, block == null ? -1 : block.position(), trailerPending);
+	}
+
+	/**
+	 * Continue reading at a position saved from an input of the same folder.
+	 */
+	void seek(Position position) throws IOException {
+		next = position.next;
+		trailerPending = position.trailerPending;
+		if (position.offset < 0) {
+			block = null;
+		} else {
+			block = load(next - 1);
+			block.position(position.offset);
+		}
+	}
+
+	/** A read position: the next block to load and the offset in the block before it. */
+	static final class Position {
+		final int next;
+		/** -1 if no block is loaded */
+		final int offset;
+		final boolean trailerPending;
+
+		Position(int next, int offset, boolean trailerPending) {
+			this.next = next;
+			this.offset = offset;
+			this.trailerPending = trailerPending;
+		}
+	}
+}
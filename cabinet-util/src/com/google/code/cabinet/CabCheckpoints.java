@@ -0,0 +1,91 @@
+/*
+  Copyright [2009] [allenhooo at gmail dot com]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.google.code.cabinet;
+
+/**
+ * Decoder states of a compressed folder, recorded every {@link #interval} data blocks.<p>
+ * A stream records the states while it decodes the folder in order. A stream which has to
+ * start over at a block far into the folder resumes from the nearest state before the block
+ * instead of the first block. The checkpoints are shared by all streams of the folder,
+ * a recorded state is never modified.
+ */
+class CabCheckpoints {
+	/** number of data blocks between two checkpoints */
+	final int interval;
+	/** state before block i*interval, null until recorded */
+	private final State[] states;
+	private final int blocks;
+
+	CabCheckpoints(int interval, int blocks) {
+		this.interval = interval;
+		this.blocks = blocks;
+		this.states = new State[blocks / interval + 1];
+	}
+
+	/**
+	 * @return true if block is a checkpoint without a recorded state
+	 */
+	synchronized boolean wants(int block) {
+		return block > 0 && block < blocks && block % interval == 0 && states[block / interval] == null;
+	}
+
+	synchronized void put(State state) {
+		states[state.block / interval] = state;
+	}
+
+	/**
+	 * @return the recorded state nearest before blockIndex, null if there is none
+	 */
+	synchronized State get(int blockIndex) {
+		for (int i = Math.min(blockIndex / interval, states.length - 1); i > 0; i--) {
+			if (states[i] != null) {
+				return states[i];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Everything needed to decode on from block.<p>
+	 * MSZIP only needs the uncompressed bytes of the block before. LZX and Quantum need
+	 * a copy of the decoder and the position in the compressed bytes of the folder.
+	 */
+	static final class State {
+		/** the block decoded next after restoring the state */
+		final int block;
+		final byte[] history;
+		final LzxDecoder lzx;
+		final QuantumDecoder quantum;
+		final CabBlockInput.Position input;
+
+		State(int block, byte[] history) {
+			this(block, history, null, null, null);
+		}
+
+		State(int block, LzxDecoder lzx, QuantumDecoder quantum, CabBlockInput.Position input) {
+			this(block, null, lzx, quantum, input);
+		}
+
+		private State(int block, byte[] history, LzxDecoder lzx, QuantumDecoder quantum,
+				CabBlockInput.Position input) {
+			this.block = block;
+			this.history = history;
+			this.lzx = lzx;
+			this.quantum = quantum;
+			this.input = input;
+		}
+	}
+}
@@ -16,7 +16,10 @@
 package com.google.code.cabinet;
 
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
 
 /**
  * CAB DATA section
@@ -24,14 +27,14 @@ import java.io.RandomAccessFile;
  * 2009-12-24
  */
 class CabData {
-	private RandomAccessFile file;
+	private CabSource source;
 	private boolean speed_first = false;
 	
-	CabData(RandomAccessFile file){
-		this(file, false);
+	CabData(CabSource source){
+		this(source, false);
 	}
-	CabData(RandomAccessFile file, boolean speed_first){
-		this.file = file;
+	CabData(CabSource source, boolean speed_first){
+		this.source = source;
 		this.speed_first = speed_first;
 	}
 	/** checksum of this CFDATA entry , 4bytes*/
@@ -43,16 +46,39 @@ class CabData {
 	/** (optional) per-datablock reserved area , 1*n bytes*/
 	short abReserve[];
 	/** compressed data bytes (length=cbData) , 1*cbData bytes*/
-	private byte ab[];
+	private volatile byte ab[];
 	/** compressed offset in the cab file*/
-	int offset;
+	long offset;
+	/** the pieces of a block split across cabinets, null for a block in one cab file */
+	private CabData[] parts;
+	
+	/**
+	 * Join the pieces of a block split across cabinets into one block.
+	 * @param first last block of a folder continued in the next cabinet, cbUncomp 0; may be joined already
+	 * @param rest first block of the folder in the next cabinet
+	 */
+	static CabData join(CabData first, CabData rest){
+		CabData[] head = first.parts == null ? new CabData[]{first} : first.parts;
+		CabData data = new CabData(head[0].source, head[0].speed_first);
+		data.parts = Arrays.copyOf(head, head.length + 1);
+		data.parts[head.length] = rest;
+		data.cbData = first.cbData + rest.cbData;
+		data.cbUncomp = rest.cbUncomp;
+		data.offset = head[0].offset;
+		return data;
+	}
 	
 	/**读取数据块。*/
 	byte[] getDataBlock() throws IOException{
 		if(ab == null){
-			file.seek(offset);
-			byte[] x = new byte[cbData];
-			file.read(x);
+			ByteBuffer b = parts == null ? source.read(offset, cbData) : readParts(ByteBuffer.allocate(cbData));
+			byte[] x;
+			if(b.hasArray()){
+				x = b.array();
+			}else{
+				x = new byte[cbData];
+				b.get(x);
+			}
 			
 			if(speed_first){
 				ab = x;
@@ -63,8 +89,171 @@ class CabData {
 		}
 	}
 	
+	/**
+	 * 读取数据块, position 0, limit cbData.<br>
+	 * When the source is memory mapped this is a slice of the mapping and no bytes are copied.
+	 */
+	ByteBuffer getDataBuffer() throws IOException{
+		if(ab == null && parts == null && (source.isMapped() || !speed_first)){
+			return source.read(offset, cbData);
+		}
+		return ByteBuffer.wrap(getDataBlock());
+	}
+	
+	/**
+	 * 读取数据块 into buffer, which must hold at least cbData bytes.<br>
+	 * Cached and memory mapped blocks are returned without touching buffer.
+	 * @return the block, position 0, limit cbData
+	 */
+	ByteBuffer getDataBuffer(ByteBuffer buffer) throws IOException{
+		if(ab != null || speed_first || (parts == null && source.isMapped())){
+			return getDataBuffer();
+		}
+		if(parts != null){
+			return readParts(buffer);
+		}
+		buffer.clear();
+		buffer.limit(cbData);
+		source.read(offset, buffer);
+		buffer.flip();
+		return buffer;
+	}
+	
+	/** Read the pieces of a split block one after the other into buffer. */
+	private ByteBuffer readParts(ByteBuffer buffer) throws IOException{
+		buffer.clear();
+		for(CabData part : parts){
+			buffer.limit(buffer.position() + part.cbData);
+			part.source.read(part.offset, buffer);
+		}
+		buffer.flip();
+		return buffer;
+	}
+	
+	/**
+	 * Write count bytes of the block from position on to target, see {@link CabSource#transferTo(long, long, WritableByteChannel)}.
+	 */
+	void transferTo(long position, long count, WritableByteChannel target) throws IOException{
+		if(parts == null){
+			source.transferTo(offset + position, count, target);
+			return;
+		}
+		for(CabData part : parts){
+			if(count == 0){
+				break;
+			}
+			if(position < part.cbData){
+				long n = Math.min(count, part.cbData - position);
+				part.source.transferTo(part.offset + position, n, target);
+				count -= n;
+				position = 0;
+			}else{
+				position -= part.cbData;
+			}
+		}
+	}
+	
+	/**
+	 * Fill the remaining bytes of dst with the bytes of the block from position on, see {@link CabSource#read(long, ByteBuffer)}.
+	 */
+	void read(long position, ByteBuffer dst) throws IOException{
+		if(parts == null){
+			source.read(offset + position, dst);
+			return;
+		}
+		for(CabData part : parts){
+			if(!dst.hasRemaining()){
+				break;
+			}
+			if(position < part.cbData){
+				int limit = dst.limit();
+				dst.limit((int) Math.min(limit, dst.position() + part.cbData - position));
+				try{
+					part.source.read(part.offset + position, dst);
+				}finally{
+					dst.limit(limit);
+				}
+				position = 0;
+			}else{
+				position -= part.cbData;
+			}
+		}
+	}
+	
+	/**
+	 * Read length bytes from the start of the block on in the background, see {@link CabSource#prefetch(long, int)}.
+	 * For a split block the bytes are read from its piece in the later cabinet.
+	 */
+	void prefetch(int length){
+		CabData data = parts == null ? this : parts[parts.length - 1];
+		data.source.prefetch(data.offset, length);
+	}
+	
+	/**
+	 * 校验数据块. A csum of 0 means the block has no checksum.<br>
+	 * The checksum XORs the data as little-endian ints, then the 1 to 3 bytes left over,
+	 * then the cbData and cbUncomp fields as one more int.
+	 * @param block the bytes of {@link #getDataBuffer(ByteBuffer)}, position 0, limit cbData
+	 */
+	void verify(ByteBuffer block) throws IOException{
+		if(parts != null){
+			// every piece carries its own checksum
+			int start = 0;
+			for(CabData part : parts){
+				ByteBuffer b = block.duplicate();
+				b.limit(start + part.cbData);
+				b.position(start);
+				part.verify(b.slice());
+				start += part.cbData;
+			}
+			return;
+		}
+		if(csum == 0){
+			return;
+		}
+		int sum = checksum(block, 0, cbData, 0);
+		sum ^= (cbData & 0xFFFF) | (cbUncomp & 0xFFFF) << 16;
+		if(sum != csum){
+			throw new IOException("Bad checksum in data block at " + offset);
+		}
+	}
+
+	/**
+	 * XOR of length bytes at start, a word at a time.
+	 */
+	@SuppressWarnings("fallthrough")
+	static int checksum(ByteBuffer b, int start, int length, int seed){
+		ByteBuffer le = b.order() == ByteOrder.LITTLE_ENDIAN ? b : b.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		int i = start;
+		int words = i + (length & ~15);
+		// four independent chains
+		int s0 = seed, s1 = 0, s2 = 0, s3 = 0;
+		for(; i < words; i += 16){
+			s0 ^= le.getInt(i);
+			s1 ^= le.getInt(i + 4);
+			s2 ^= le.getInt(i + 8);
+			s3 ^= le.getInt(i + 12);
+		}
+		int end = start + (length & ~3);
+		for(; i < end; i += 4){
+			s0 ^= le.getInt(i);
+		}
+		int ul = 0;
+		switch(length & 3){
+		case 3:
+			ul |= (le.get(i++) & 0xFF) << 16;
+			// fall through
+		case 2:
+			ul |= (le.get(i++) & 0xFF) << 8;
+			// fall through
+		case 1:
+			ul |= le.get(i) & 0xFF;
+		}
+		return s0 ^ s1 ^ s2 ^ s3 ^ ul;
+	}
+
 	void fill2byte(byte[] b, int offset, int num){
 		b[offset++] = (byte)(num&0x000000FF);
 		b[offset++] = (byte)((num&0x0000FF00)>>8);
 	}
-};
\ No newline at end of file
+};
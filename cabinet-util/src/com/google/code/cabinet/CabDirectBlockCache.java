@@ -0,0 +1,176 @@
+/*
+  Copyright [2009] [allenhooo at gmail dot com]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.google.code.cabinet;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A block cache outside the Java heap.<p>
+ * Blocks live in fixed slots of 32K, the largest uncompressed CFDATA block, carved out of
+ * direct buffers of up to 32M which are allocated as the cache fills. The memory budget is
+ * therefore the capacity rounded down to whole slots. A hit copies the block into the
+ * caller's buffer while holding the lock, so a slot can be reused as soon as it is evicted.
+ * {@link #release()} frees the native memory right away where the JVM allows it.
+ */
+class CabDirectBlockCache extends CabBlockCache {
+	/** size of a slot, no uncompressed block is larger */
+	static final int SLOT_SIZE = 0x8000;
+	private static final int SLOTS_PER_CHUNK = 1024;
+
+	private final int slotCount;
+	private ByteBuffer[] chunks;
+	/** bytes used in every slot */
+	private final int[] lengths;
+	/** slots freed again, a stack */
+	private final int[] free;
+	private int freeCount = 0;
+	/** slots below this have been handed out at least once */
+	private int used = 0;
+	private final LinkedHashMap<Long, Integer> slots = new LinkedHashMap<Long, Integer>(16, 0.75f, true);
+
+	CabDirectBlockCache(long capacity) {
+		super(capacity);
+		slotCount = (int) Math.min(capacity / SLOT_SIZE, Integer.MAX_VALUE - SLOTS_PER_CHUNK);
+		chunks = new ByteBuffer[(slotCount + SLOTS_PER_CHUNK - 1) / SLOTS_PER_CHUNK];
+		lengths = new int[slotCount];
+		free = new int[slotCount];
+	}
+
+	@Override
+	boolean isDirect() {
+		return true;
+	}
+
+	/**
+	 * @param buffer receives the block, at least {@link #SLOT_SIZE} bytes
+	 */
+	@Override
+	synchronized ByteBuffer get(CabFolder folder, int blockIndex, ByteBuffer buffer) {
+		if (!peek(folder, blockIndex, buffer)) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return buffer;
+	}
+
+	@Override
+	synchronized boolean peek(CabFolder folder, int blockIndex, ByteBuffer dst) {
+		Integer slot = chunks == null ? null : slots.get(key(folder, blockIndex));
+		if (slot == null) {
+			return false;
+		}
+		dst.clear();
+		dst.put(slot(slot.intValue()));
+		dst.flip();
+		return true;
+	}
+
+	@Override
+	synchronized void put(CabFolder folder, int blockIndex, byte[] b, int length) {
+		Long key = key(folder, blockIndex);
+		if (chunks == null || slotCount == 0 || length > SLOT_SIZE || slots.containsKey(key)) {
+			return;
+		}
+		int slot;
+		if (freeCount > 0) {
+			slot = free[--freeCount];
+		} else if (used < slotCount) {
+			slot = used++;
+		} else {
+			// evict the least recently used block and take its slot
+			Iterator<Map.Entry<Long, Integer>> i = slots.entrySet().iterator();
+			slot = i.next().getValue().intValue();
+			i.remove();
+			size -= lengths[slot];
+		}
+		lengths[slot] = 0;
+		ByteBuffer dst = slot(slot);
+		dst.limit(length);
+		dst.put(b, 0, length);
+		lengths[slot] = length;
+		size += length;
+		slots.put(key, Integer.valueOf(slot));
+	}
+
+	/**
+	 * @return the slot, position 0 and limit the length of its block
+	 */
+	private ByteBuffer slot(int slot) {
+		int c = slot / SLOTS_PER_CHUNK;
+		if (chunks[c] == null) {
+			int n = Math.min(SLOTS_PER_CHUNK, slotCount - c * SLOTS_PER_CHUNK);
+			chunks[c] = ByteBuffer.allocateDirect(n * SLOT_SIZE);
+		}
+		ByteBuffer b = chunks[c].duplicate();
+		int start = (slot % SLOTS_PER_CHUNK) * SLOT_SIZE;
+		b.limit(start + SLOT_SIZE);
+		b.position(start);
+		b = b.slice();
+		b.limit(lengths[slot]);
+		return b;
+	}
+
+	/**
+	 * Drop all blocks and free the direct buffers. The cache keeps nothing afterwards.
+	 */
+	@Override
+	synchronized void release() {
+		slots.clear();
+		size = 0;
+		if (chunks != null) {
+			for (int i = 0; i < chunks.length; i++) {
+				if (chunks[i] != null) {
+					free(chunks[i]);
+				}
+			}
+			chunks = null;
+		}
+	}
+
+	/**
+	 * Free the native memory of a direct buffer now instead of when it is garbage collected.
+	 * There is no public API for this, the JVM internals are tried through reflection.
+	 */
+	private static void free(ByteBuffer buffer) {
+		try {
+			// Java 9 and later
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			invokeCleaner.invoke(theUnsafe.get(null), buffer);
+			return;
+		} catch (Exception e) {
+			// older JVM
+		}
+		try {
+			Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+			cleanerMethod.setAccessible(true);
+			Object cleaner = cleanerMethod.invoke(buffer);
+			if (cleaner != null) {
+				cleaner.getClass().getMethod("clean").invoke(cleaner);
+			}
+		} catch (Exception e) {
+			// left to the garbage collector
+		}
+	}
+}
@@ -0,0 +1,176 @@
+/*
+  Copyright [2009] [allenhooo at gmail dot com]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.google.code.cabinet;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * A packed file as a read-only SeekableByteChannel, see {@link CabinetReader#getFileChannel(String)}.<p>
+ * The bytes of an uncompressed folder are read from the cab file straight into the buffer of
+ * the caller, at the offset of the block holding the position plus the offset within it.
+ * A compressed folder is decoded a block at a time, the block holding the position is found
+ * with {@link CabFolder#blockAt(long)} and its bytes are put into the caller's buffer. Moving
+ * the position decodes nothing, the next read does. A channel must be used by one thread at a time.
+ */
+class CabEntryChannel implements SeekableByteChannel {
+	private final CabFolder folder;
+	/** offset of the file in the folder */
+	private final long start;
+	/** size of the file */
+	private final long size;
+	private final CabFolderDecoder decoder;
+	/** the folder is not compressed */
+	private final boolean stored;
+
+	/** next byte read, from the start of the file */
+	private long pos = 0;
+	/** uncompressed data of block uncompBlock */
+	private ByteBuffer currentUnCompData;
+	/** index of the decoded block, -1 for none */
+	private int uncompBlock = -1;
+
+	private volatile boolean open = true;
+
+	CabEntryChannel(CabFolder folder, CabFile file) {
+		this.folder = folder;
+		this.start = file.uoffFolderStart;
+		this.size = file.cbFile;
+		this.decoder = new CabFolderDecoder(folder);
+		this.stored = (folder.typeCompress & CabFolder.COMP_MASK_TYPE) == CabFolder.COMP_TYPE_NONE;
+	}
+
+	private void ensureOpen() throws IOException {
+		if (!open) {
+			throw new ClosedChannelException();
+		}
+	}
+
+	/**
+	 * Read from the position into dst, until dst is full, the file ends or the data of the
+	 * folder does.
+	 * @return bytes read, -1 at the end of the file
+	 */
+	public int read(ByteBuffer dst) throws IOException {
+		ensureOpen();
+		if (pos >= size) {
+			return -1;
+		}
+		int count = 0;
+		while (dst.hasRemaining() && pos < size) {
+			long offset = start + pos;
+			int index = folder.blockAt(offset);
+			if (index < 0) {
+				// folder数据不足
+				if (count == 0) {
+					folder.checkNextVolume();
+					return -1;
+				}
+				break;
+			}
+			int dataIndex = (int) (offset - folder.blockStart[index]);
+			int n = (int) Math.min(Math.min(dst.remaining(), folder.blockStart[index + 1] - offset), size - pos);
+			if (stored && !folder.verify) {
+				int limit = dst.limit();
+				dst.limit(dst.position() + n);
+				try {
+					folder.read(index, dataIndex, dst);
+				} finally {
+					dst.limit(limit);
+				}
+			} else {
+				ByteBuffer block = getBlock(index).duplicate();
+				block.limit(dataIndex + n);
+				block.position(dataIndex);
+				dst.put(block);
+			}
+			pos += n;
+			count += n;
+		}
+		return count;
+	}
+
+	/**
+	 * Uncompressed data of a block, decoded unless it is the last one decoded. A stored block
+	 * is decoded too when checksums are verified, the whole block has to be read for that.
+	 */
+	private ByteBuffer getBlock(int index) throws IOException {
+		if (index != uncompBlock) {
+			uncompBlock = -1;
+			currentUnCompData = decoder.decode(index);
+			uncompBlock = index;
+		}
+		return currentUnCompData;
+	}
+
+	/**
+	 * The channel is read-only.
+	 * @throws NonWritableChannelException always
+	 */
+	public int write(ByteBuffer src) throws IOException {
+		throw new NonWritableChannelException();
+	}
+
+	public long position() throws IOException {
+		ensureOpen();
+		return pos;
+	}
+
+	/**
+	 * Move the position, nothing is read until the next read.
+	 * @param newPosition offset from the start of the file, at or beyond the end reads end of file
+	 */
+	public SeekableByteChannel position(long newPosition) throws IOException {
+		ensureOpen();
+		if (newPosition < 0) {
+			throw new IllegalArgumentException("Negative position");
+		}
+		pos = newPosition;
+		return this;
+	}
+
+	/**
+	 * @return uncompressed size of the file
+	 */
+	public long size() throws IOException {
+		ensureOpen();
+		return size;
+	}
+
+	/**
+	 * The channel is read-only.
+	 * @throws NonWritableChannelException always
+	 */
+	public SeekableByteChannel truncate(long size) throws IOException {
+		throw new NonWritableChannelException();
+	}
+
+	public boolean isOpen() {
+		return open;
+	}
+
+	public void close() throws IOException {
+		if (!open) {
+			return;
+		}
+		open = false;
+		currentUnCompData = null;
+		decoder.end();
+	}
+}
@@ -34,10 +34,17 @@ class CabFile {
 	/** szName[] contains UTF */
 	static final int NAME_IS_UTF = (0x80);
 
-	/** uncompressed size of this file in bytes , 4bytes*/
-	int cbFile;
-	/** uncompressed offset of this file in the folder , 4bytes*/
-	int uoffFolderStart;
+	/** iFolder of a file continued from the previous cabinet, it lies in the first folder */
+	static final int CONTINUED_FROM_PREV = 0xFFFD;
+	/** iFolder of a file continued in the next cabinet, it lies in the last folder */
+	static final int CONTINUED_TO_NEXT = 0xFFFE;
+	/** iFolder of a file continued from the previous and in the next cabinet */
+	static final int CONTINUED_PREV_AND_NEXT = 0xFFFF;
+
+	/** uncompressed size of this file in bytes , 4bytes, unsigned*/
+	long cbFile;
+	/** uncompressed offset of this file in the folder , 4bytes, unsigned*/
+	long uoffFolderStart;
 	/** index into the CFFOLDER area , 2bytes*/
 	int iFolder;
 	/** date stamp for this file , 2bytes*/
@@ -0,0 +1,63 @@
+/*
+  Copyright [2009] [allenhooo at gmail dot com]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.google.code.cabinet;
+
+import java.io.IOException;
+import java.nio.file.ReadOnlyFileSystemException;
+import java.nio.file.attribute.DosFileAttributeView;
+import java.nio.file.attribute.FileTime;
+
+/**
+ * The basic or dos view of a path in a {@link CabinetFileSystem}. The path is looked up when
+ * the attributes are read, every change throws ReadOnlyFileSystemException.
+ */
+class CabFileAttributeView implements DosFileAttributeView {
+	private final CabPath path;
+	private final boolean dos;
+
+	CabFileAttributeView(CabPath path, boolean dos) {
+		this.path = path;
+		this.dos = dos;
+	}
+
+	public String name() {
+		return dos ? "dos" : "basic";
+	}
+
+	public CabFileAttributes readAttributes() throws IOException {
+		return path.getFileSystem().readAttributes(path);
+	}
+
+	public void setTimes(FileTime lastModifiedTime, FileTime lastAccessTime, FileTime createTime) throws IOException {
+		throw new ReadOnlyFileSystemException();
+	}
+
+	public void setReadOnly(boolean value) throws IOException {
+		throw new ReadOnlyFileSystemException();
+	}
+
+	public void setHidden(boolean value) throws IOException {
+		throw new ReadOnlyFileSystemException();
+	}
+
+	public void setSystem(boolean value) throws IOException {
+		throw new ReadOnlyFileSystemException();
+	}
+
+	public void setArchive(boolean value) throws IOException {
+		throw new ReadOnlyFileSystemException();
+	}
+}
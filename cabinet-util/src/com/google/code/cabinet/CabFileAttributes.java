@@ -0,0 +1,180 @@
+/*
+  Copyright [2009] [allenhooo at gmail dot com]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.google.code.cabinet;
+
+import java.nio.file.attribute.DosFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The attributes of a file or directory in a {@link CabinetFileSystem}.<p>
+ * A file has the MS-DOS date and time stamp of its CFFILE entry as modification, access and
+ * creation time, and the read-only, hidden, system and archive bits of its attribute flags.
+ * A directory has no entry, it gets the modification time of the cab file and no flags.
+ */
+class CabFileAttributes implements DosFileAttributes {
+	/** the names of the basic view, the dos view adds {@link #DOS_NAMES} */
+	static final String[] BASIC_NAMES = { "lastModifiedTime", "lastAccessTime", "creationTime", "size",
+			"isRegularFile", "isDirectory", "isSymbolicLink", "isOther", "fileKey" };
+	static final String[] DOS_NAMES = { "readonly", "hidden", "system", "archive" };
+
+	/** null for a directory */
+	private final CabFile file;
+	private final FileTime time;
+
+	/**
+	 * @param file the entry of a file, null for a directory
+	 * @param dirTime time of a directory
+	 */
+	CabFileAttributes(CabFile file, FileTime dirTime) {
+		this.file = file;
+		this.time = file == null ? dirTime : FileTime.fromMillis(CabinetEntry.toMillis(file.date, file.time));
+	}
+
+	public FileTime lastModifiedTime() {
+		return time;
+	}
+
+	public FileTime lastAccessTime() {
+		return time;
+	}
+
+	public FileTime creationTime() {
+		return time;
+	}
+
+	public boolean isRegularFile() {
+		return file != null;
+	}
+
+	public boolean isDirectory() {
+		return file == null;
+	}
+
+	public boolean isSymbolicLink() {
+		return false;
+	}
+
+	public boolean isOther() {
+		return false;
+	}
+
+	public long size() {
+		return file == null ? 0 : file.cbFile;
+	}
+
+	public Object fileKey() {
+		return null;
+	}
+
+	public boolean isReadOnly() {
+		return file != null && file.isReadonly();
+	}
+
+	public boolean isHidden() {
+		return file != null && file.isHidden();
+	}
+
+	public boolean isArchive() {
+		return file != null && file.isArch();
+	}
+
+	public boolean isSystem() {
+		return file != null && file.isSystem();
+	}
+
+	/**
+	 * The value of an attribute by its name in the basic or dos view.
+	 * @return null for an unknown name
+	 */
+	Object get(String name) {
+		if (name.equals("lastModifiedTime")) {
+			return lastModifiedTime();
+		} else if (name.equals("lastAccessTime")) {
+			return lastAccessTime();
+		} else if (name.equals("creationTime")) {
+			return creationTime();
+		} else if (name.equals("size")) {
+			return Long.valueOf(size());
+		} else if (name.equals("isRegularFile")) {
+			return Boolean.valueOf(isRegularFile());
+		} else if (name.equals("isDirectory")) {
+			return Boolean.valueOf(isDirectory());
+		} else if (name.equals("isSymbolicLink")) {
+			return Boolean.valueOf(isSymbolicLink());
+		} else if (name.equals("isOther")) {
+			return Boolean.valueOf(isOther());
+		} else if (name.equals("fileKey")) {
+			return fileKey();
+		} else if (name.equals("readonly")) {
+			return Boolean.valueOf(isReadOnly());
+		} else if (name.equals("hidden")) {
+			return Boolean.valueOf(isHidden());
+		} else if (name.equals("system")) {
+			return Boolean.valueOf(isSystem());
+		} else if (name.equals("archive")) {
+			return Boolean.valueOf(isArchive());
+		}
+		return null;
+	}
+
+	/**
+	 * The attributes asked for by {@link java.nio.file.Files#readAttributes(java.nio.file.Path, String, java.nio.file.LinkOption...)}.
+	 * @param view "basic" or "dos"
+	 * @param names comma separated names of the view, or "*" for all of them
+	 * @throws IllegalArgumentException for a name the view does not have
+	 */
+	Map<String, Object> toMap(String view, String names) {
+		boolean dos = view.equals("dos");
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		for (String name : names.split(",")) {
+			if (name.equals("*")) {
+				for (String n : BASIC_NAMES) {
+					map.put(n, get(n));
+				}
+				if (dos) {
+					for (String n : DOS_NAMES) {
+						map.put(n, get(n));
+					}
+				}
+			} else if (isBasicName(name) || dos && isDosName(name)) {
+				map.put(name, get(name));
+			} else {
+				throw new IllegalArgumentException("'" + name + "' not recognized");
+			}
+		}
+		return map;
+	}
+
+	private static boolean isBasicName(String name) {
+		for (String n : BASIC_NAMES) {
+			if (n.equals(name)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isDosName(String name) {
+		for (String n : DOS_NAMES) {
+			if (n.equals(name)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
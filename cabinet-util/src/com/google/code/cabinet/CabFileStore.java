@@ -0,0 +1,87 @@
+/*
+  Copyright [2009] [allenhooo at gmail dot com]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.google.code.cabinet;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.DosFileAttributeView;
+import java.nio.file.attribute.FileAttributeView;
+import java.nio.file.attribute.FileStoreAttributeView;
+
+/**
+ * The single, read-only store of a {@link CabinetFileSystem}. Its size is the size of the cab
+ * file, nothing of it is free.
+ */
+class CabFileStore extends FileStore {
+	private final Path cab;
+
+	CabFileStore(Path cab) {
+		this.cab = cab;
+	}
+
+	@Override
+	public String name() {
+		return cab.toString();
+	}
+
+	@Override
+	public String type() {
+		return "cab";
+	}
+
+	@Override
+	public boolean isReadOnly() {
+		return true;
+	}
+
+	@Override
+	public long getTotalSpace() throws IOException {
+		return Files.size(cab);
+	}
+
+	@Override
+	public long getUsableSpace() throws IOException {
+		return 0;
+	}
+
+	@Override
+	public long getUnallocatedSpace() throws IOException {
+		return 0;
+	}
+
+	@Override
+	public boolean supportsFileAttributeView(Class<? extends FileAttributeView> type) {
+		return type == BasicFileAttributeView.class || type == DosFileAttributeView.class;
+	}
+
+	@Override
+	public boolean supportsFileAttributeView(String name) {
+		return name.equals("basic") || name.equals("dos");
+	}
+
+	@Override
+	public <V extends FileStoreAttributeView> V getFileStoreAttributeView(Class<V> type) {
+		return null;
+	}
+
+	@Override
+	public Object getAttribute(String attribute) throws IOException {
+		throw new UnsupportedOperationException("'" + attribute + "' not recognized");
+	}
+}
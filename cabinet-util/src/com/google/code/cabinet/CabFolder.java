@@ -16,8 +16,11 @@
 package com.google.code.cabinet;
 
 import java.io.IOException;
-import java.util.zip.DataFormatException;
-import java.util.zip.Inflater;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * cab Folder section
@@ -32,9 +35,14 @@ class CabFolder {
 	static final int COMP_TYPE_LZX          = 0x0003;  // LZX
 	static final int COMP_BAD               = 0x000F;  // Unspecified compression type
 
+	/** blocks before the end of the folder in one cabinet at which the next cabinet is read ahead */
+	private static final int PREFETCH_BLOCKS = 16;
+	/** compressed bytes read ahead from the next cabinet */
+	private static final int PREFETCH_BYTES = 1 << 22;
+
 	
-	/** offset of the first CFDATA block in this folder, 4bytes */
-	int coffCabStart;
+	/** offset of the first CFDATA block in this folder, 4bytes, unsigned */
+	long coffCabStart;
 	/** number of CFDATA blocks in this folder, 2bytes*/
 	int cCFData;
 	/** compression type indicator , 2bytes*/
@@ -42,33 +50,254 @@ class CabFolder {
 	/** (optional) per-folder reserved area , 1*n byte*/
 	short abReserve[];
 
+	/** the cab file holding the data blocks */
+	CabSource source;
+	/** size of the reserved area of every CFDATA entry */
+	int cbCFData;
+
 	/**
-	 * data
+	 * data, read by {@link #load()}
 	 */
 	CabData[] cabData;
-	
-	byte[] getUnCompressedData(int blockIndex) throws IOException{
-		if(typeCompress == COMP_TYPE_NONE){
-			return cabData[blockIndex].getDataBlock();
-		}else if(typeCompress == COMP_TYPE_MSZIP){
-			byte[] compressed = cabData[blockIndex].getDataBlock();
-			
-			Inflater decompresser = new Inflater(true);
-		    decompresser.setInput(compressed, 2, compressed.length-2);
-		    byte[] unCompressed = new byte[cabData[blockIndex].cbUncomp];
-		    try {
-				int resultLength = decompresser.inflate(unCompressed);
-				decompresser.end();
-				if(cabData[blockIndex].cbUncomp != resultLength){
-					throw new IOException("文件解压缩错误");
+	/**
+	 * uncompressed offset of every data block within the folder, blockStart[cCFData] is the
+	 * uncompressed size of the folder
+	 */
+	long[] blockStart;
+	/** decoder states for random access, null when disabled */
+	volatile CabCheckpoints checkpoints;
+	/** data blocks between two checkpoints, 0 for none */
+	private int checkpointInterval;
+	/** uncompressed blocks shared by the streams of the reader, null when disabled */
+	volatile CabBlockCache cache;
+	/** position of the folder in the cab */
+	int index;
+	/** verify the checksums of the data blocks */
+	volatile boolean verify;
+	/** keep the compressed bytes of the data blocks once read, for the blocks walked by {@link #load()} after it is set */
+	volatile boolean speedFirst;
+
+	/**
+	 * first block of every further cabinet the folder is continued in, a block split across
+	 * two cabinets counts to the later one; null for a folder in a single cabinet
+	 */
+	private int[] volumeBlock;
+	/** the cabinet of volumeBlock[i] has been read ahead */
+	private boolean[] prefetched;
+	/** folders of the next cabinets this folder is continued in, in order */
+	private final List<CabFolder> continuations = new ArrayList<CabFolder>();
+	/** name of the cabinet the folder starts in if that was not found, the folder can not be read */
+	String prevVolume;
+	/** name of the cabinet the folder is continued in if that was not found */
+	String nextVolume;
+
+	/**
+	 * Continue the folder with its continuation, the first folder of the next cabinet in the set.
+	 * The data blocks are put together by {@link #load()}.
+	 */
+	void append(CabFolder rest) {
+		continuations.add(rest);
+	}
+
+	/**
+	 * Read the CFDATA entries of the folder, and of its continuations in the next cabinets, when
+	 * the folder is first used. Opening a cab thus only reads the tables of folders and files.
+	 * Streams call this before they touch {@link #cabData}, {@link #blockStart} or {@link #cCFData}.
+	 * A block split across two cabinets becomes one block.
+	 */
+	synchronized void load() throws IOException {
+		if (cabData != null) {
+			return;
+		}
+		CabData[] data = readBlocks(speedFirst);
+		int[] starts = continuations.isEmpty() ? null : new int[continuations.size()];
+		for (int i = 0; i < continuations.size(); i++) {
+			CabData[] rest = continuations.get(i).readBlocks(speedFirst);
+			int n = data.length;
+			boolean split = n > 0 && rest.length > 0 && data[n - 1].cbUncomp == 0;
+			int start = split ? n - 1 : n;
+			CabData[] all = new CabData[start + rest.length];
+			System.arraycopy(data, 0, all, 0, start);
+			System.arraycopy(rest, 0, all, start, rest.length);
+			if (split) {
+				all[start] = CabData.join(data[n - 1], rest[0]);
+			}
+			data = all;
+			starts[i] = start;
+		}
+		cCFData = data.length;
+		cabData = data;
+		indexBlocks();
+		if (starts != null) {
+			volumeBlock = starts;
+			prefetched = new boolean[starts.length];
+		}
+		checkpoints = newCheckpoints();
+	}
+
+	/**
+	 * @return true if the last data block of the folder in its own cabinet is split, and
+	 * continued in the next cabinet
+	 */
+	boolean endsWithSplitBlock() throws IOException {
+		CabData[] data = readBlocks(false);
+		return data.length > 0 && data[data.length - 1].cbUncomp == 0;
+	}
+
+	/**
+	 * Walk the CFDATA entries of the folder in its own cabinet. Only the entry headers are read.
+	 * @param speedFirst the blocks keep their compressed bytes once read
+	 */
+	private CabData[] readBlocks(boolean speedFirst) throws IOException {
+		CabData[] data = new CabData[cCFData];
+		ByteBuffer header = ByteBuffer.allocate(8 + cbCFData).order(ByteOrder.LITTLE_ENDIAN);
+		long offset = coffCabStart;
+		for (int i = 0; i < data.length; i++) {
+			header.clear();
+			source.read(offset, header);
+			CabData d = new CabData(source, speedFirst);
+			d.csum = header.getInt(0);
+			d.cbData = header.getShort(4) & 0xFFFF;
+			d.cbUncomp = header.getShort(6) & 0xFFFF;
+			if (cbCFData != 0) {
+				d.abReserve = new short[cbCFData];
+				for (int k = 0; k < cbCFData; k++) {
+					d.abReserve[k] = (short) (header.get(8 + k) & 0xFF);
+				}
+			}
+			// 延迟读取
+			d.offset = offset + header.capacity();
+			offset = d.offset + d.cbData;
+			data[i] = d;
+		}
+		return data;
+	}
+
+	/**
+	 * Record decoder states every blocks data blocks, see {@link CabCheckpoints}.
+	 * @param blocks 0 to disable
+	 */
+	synchronized void setCheckpointInterval(int blocks) {
+		checkpointInterval = blocks;
+		if (cabData != null) {
+			checkpoints = newCheckpoints();
+		}
+	}
+
+	private CabCheckpoints newCheckpoints() {
+		if (checkpointInterval == 0 || (typeCompress & COMP_MASK_TYPE) == COMP_TYPE_NONE) {
+			return null;
+		}
+		return new CabCheckpoints(checkpointInterval, cCFData);
+	}
+
+	/**
+	 * Sum up the uncompressed block sizes into blockStart.
+	 */
+	void indexBlocks() {
+		blockStart = new long[cabData.length + 1];
+		for (int i = 0; i < cabData.length; i++) {
+			blockStart[i + 1] = blockStart[i] + cabData[i].cbUncomp;
+		}
+	}
+
+	/**
+	 * Compressed bytes of a data block, checked against the block checksum if {@link #verify} is set.
+	 * Reading close to the end of the folder in one cabinet reads the next cabinet ahead.
+	 * @param buffer for {@link CabData#getDataBuffer(ByteBuffer)}
+	 */
+	ByteBuffer read(int blockIndex, ByteBuffer buffer) throws IOException {
+		if (volumeBlock != null) {
+			prefetch(blockIndex);
+		}
+		CabData data = cabData[blockIndex];
+		ByteBuffer b = data.getDataBuffer(buffer);
+		if (verify) {
+			data.verify(b);
+		}
+		return b;
+	}
+
+	/**
+	 * Write count bytes of an uncompressed data block from position in the block on to target,
+	 * straight from the cab file. Checksums are not verified.
+	 */
+	void transferTo(int blockIndex, long position, long count, WritableByteChannel target) throws IOException {
+		if (volumeBlock != null) {
+			prefetch(blockIndex);
+		}
+		cabData[blockIndex].transferTo(position, count, target);
+	}
+
+	/**
+	 * Fill the remaining bytes of dst with the bytes of an uncompressed data block from
+	 * position in the block on, straight from the cab file. Checksums are not verified.
+	 */
+	void read(int blockIndex, long position, ByteBuffer dst) throws IOException {
+		if (volumeBlock != null) {
+			prefetch(blockIndex);
+		}
+		cabData[blockIndex].read(position, dst);
+	}
+
+	private void prefetch(int blockIndex) {
+		for (int i = 0; i < volumeBlock.length; i++) {
+			int next = volumeBlock[i];
+			if (blockIndex < next) {
+				if (next - blockIndex <= PREFETCH_BLOCKS) {
+					synchronized (this) {
+						if (prefetched[i]) {
+							return;
+						}
+						prefetched[i] = true;
+					}
+					cabData[next].prefetch(PREFETCH_BYTES);
 				}
-				return unCompressed;
-			} catch (DataFormatException e) {
-				String s = e.getMessage();
-				throw new IOException(s==null?"Bad file format":s, e);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @throws IOException when the data of the folder ends early because it is continued in
+	 * a cabinet which was not found
+	 */
+	void checkNextVolume() throws IOException {
+		if (nextVolume != null) {
+			throw new IOException("Cabinet " + nextVolume + " not found");
+		}
+	}
+
+	/**
+	 * @throws IOException when the folder starts in a cabinet which was not found
+	 */
+	void checkPrevVolume() throws IOException {
+		if (prevVolume != null) {
+			throw new IOException("Cabinet " + prevVolume + " not found");
+		}
+	}
+
+	/**
+	 * Binary search for the data block holding an uncompressed offset.
+	 * @param offset offset in the uncompressed folder
+	 * @return block index, -1 if the offset is beyond the end of the folder
+	 */
+	int blockAt(long offset) {
+		int n = cabData.length;
+		if (offset < 0 || offset >= blockStart[n]) {
+			return -1;
+		}
+		// last block starting at or before offset, blocks of size 0 are passed over
+		int low = 0;
+		int high = n - 1;
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (blockStart[mid] <= offset) {
+				low = mid;
+			} else {
+				high = mid - 1;
 			}
-		}else{
-			throw new UnsupportedOperationException("不支持的压缩格式:"+typeCompress);
 		}
+		return low;
 	}
-}
\ No newline at end of file
+}
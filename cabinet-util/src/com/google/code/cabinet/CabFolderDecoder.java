@@ -0,0 +1,332 @@
+/*
+  Copyright [2009] [allenhooo at gmail dot com]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.google.code.cabinet;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decompresses the data blocks of a folder.<p>
+ * Every stream owns one decoder. The Inflater and the input and output buffers are
+ * kept for the life of the decoder, so decoding a block does not allocate.
+ * Call {@link #end()} to release the native zlib state.<p>
+ * An MSZIP block may refer back to the uncompressed bytes of the previous block, so the
+ * previous output is kept and handed to the Inflater as its dictionary. Blocks are therefore
+ * decoded in order: asking for the next block is the fast path, a later block is reached by
+ * decoding on, any other block by decoding again from the start of the folder. Either starts
+ * from the nearest checkpoint before the block instead, when the folder has {@link CabCheckpoints}
+ * and the checkpoint is nearer. Decoding in order records the checkpoints.
+ */
+class CabFolderDecoder {
+	private final CabFolder folder;
+	private Inflater inflater;
+
+	/** compressed bytes of the current block */
+	private ByteBuffer input;
+	/** uncompressed bytes of the current block */
+	private ByteBuffer output;
+	/** uncompressed bytes of the block before the current one, the MSZIP dictionary */
+	private ByteBuffer history;
+	/** index of the block held in output, -1 if none */
+	private int current = -1;
+
+	/** LZX state, carried from block to block */
+	private LzxDecoder lzx;
+	/** Quantum state, carried from block to block */
+	private QuantumDecoder quantum;
+	/** compressed bytes of the folder for the LZX or Quantum decoder */
+	private CabBlockInput blockInput;
+	/** log2 of the LZX or Quantum window size */
+	private int windowBits;
+	/** block copied out of an off-heap block cache */
+	private ByteBuffer cached;
+
+	CabFolderDecoder(CabFolder folder) {
+		this.folder = folder;
+	}
+
+	/**
+	 * Uncompressed bytes of a block, position 0, limit cbUncomp.<br>
+	 * The buffer is owned by the decoder and only valid until the next call.
+	 * Uncompressed blocks of a memory mapped cab are slices of the mapping.
+	 * Compressed blocks are looked up in and added to the block cache of the folder, if any.
+	 */
+	ByteBuffer decode(int blockIndex) throws IOException {
+		int type = folder.typeCompress & CabFolder.COMP_MASK_TYPE;
+		if (type == CabFolder.COMP_TYPE_NONE) {
+			return read(blockIndex);
+		}
+		CabBlockCache cache = folder.cache;
+		if (cache != null) {
+			if (cache.isDirect() && cached == null) {
+				cached = ByteBuffer.allocate(CabDirectBlockCache.SLOT_SIZE);
+			}
+			ByteBuffer hit = cache.get(folder, blockIndex, cached);
+			if (hit != null) {
+				return hit;
+			}
+		}
+		ByteBuffer block;
+		if (type == CabFolder.COMP_TYPE_MSZIP) {
+			block = inflate(blockIndex);
+		} else if (type == CabFolder.COMP_TYPE_LZX || type == CabFolder.COMP_TYPE_QUANTUM) {
+			block = decodeFrames(blockIndex, type);
+		} else {
+			throw new UnsupportedOperationException("不支持的压缩格式:" + folder.typeCompress);
+		}
+		if (cache != null) {
+			cache.put(folder, blockIndex, block.array(), block.limit());
+		}
+		return block;
+	}
+
+	private ByteBuffer inflate(int blockIndex) throws IOException {
+		try {
+			if (blockIndex != current && blockIndex != current + 1) {
+				// a later block is reached by decoding on from the block in output
+				int resume = blockIndex > current ? current : -1;
+				current = -1;
+				if (blockIndex > 0 && !restoreCached(blockIndex - 1)) {
+					// fast path: without the previous block at hand, try the block on its own.
+					// A block which refers to the history fails with a distance too far back.
+					// The block in output is kept aside in history meanwhile.
+					ByteBuffer t = history;
+					history = output;
+					output = t;
+					try {
+						inflateBlock(blockIndex, false);
+					} catch (DataFormatException e) {
+						t = output;
+						output = history;
+						history = t;
+						// decode from the nearest checkpoint, the block in output or the start of the folder
+						restoreHistory(blockIndex, resume);
+					}
+				}
+			}
+			while (current < blockIndex) {
+				inflateBlock(current + 1, current >= 0);
+				recordHistory();
+			}
+		} catch (DataFormatException e) {
+			String s = e.getMessage();
+			throw new IOException(s == null ? "Bad file format" : s, e);
+		}
+		output.position(0);
+		return output;
+	}
+
+	/**
+	 * Decode a block into output.
+	 * @param useHistory the uncompressed bytes in output belong to block index-1, use them as dictionary
+	 */
+	private void inflateBlock(int index, boolean useHistory) throws IOException, DataFormatException {
+		current = -1;
+		CabData data = folder.cabData[index];
+		ByteBuffer compressed = read(index);
+		if (compressed.remaining() < 2 || compressed.get(0) != 'C' || compressed.get(1) != 'K') {
+			throw new IOException("Bad file format");
+		}
+		byte[] in;
+		int off;
+		if (compressed.hasArray()) {
+			in = compressed.array();
+			off = compressed.arrayOffset() + 2;
+		} else {
+			// Inflater only accepts arrays
+			in = input(data.cbData).array();
+			off = 0;
+			compressed.position(2);
+			compressed.get(in, 0, data.cbData - 2);
+		}
+		if (inflater == null) {
+			inflater = new Inflater(true);
+		} else {
+			inflater.reset();
+		}
+		inflater.setInput(in, off, data.cbData - 2);
+		if (useHistory) {
+			ByteBuffer t = history;
+			history = output;
+			output = t;
+			inflater.setDictionary(history.array(), 0, history.limit());
+		}
+
+		ByteBuffer out = output(data.cbUncomp);
+		int resultLength = inflater.inflate(out.array(), 0, data.cbUncomp);
+		if (data.cbUncomp != resultLength) {
+			throw new IOException("文件解压缩错误");
+		}
+		out.limit(data.cbUncomp);
+		current = index;
+	}
+
+	/**
+	 * Put a block from the block cache into output, as the history of the block after it.
+	 * @return false if the block is not cached
+	 */
+	private boolean restoreCached(int blockIndex) {
+		CabBlockCache cache = folder.cache;
+		if (cache == null || !cache.peek(folder, blockIndex, output(folder.cabData[blockIndex].cbUncomp))) {
+			return false;
+		}
+		current = blockIndex;
+		return true;
+	}
+
+	/**
+	 * Put the dictionary of the nearest checkpoint before blockIndex into output, unless
+	 * the block in output is nearer.
+	 * @param resume index of the block in output, -1 if it does not come before blockIndex
+	 */
+	private void restoreHistory(int blockIndex, int resume) {
+		CabCheckpoints checkpoints = folder.checkpoints;
+		CabCheckpoints.State state = checkpoints == null ? null : checkpoints.get(blockIndex);
+		if (state == null || state.block - 1 <= resume) {
+			current = resume;
+			return;
+		}
+		ByteBuffer out = output(state.history.length);
+		out.put(state.history);
+		out.flip();
+		current = state.block - 1;
+	}
+
+	/**
+	 * Keep a copy of output when the next block is a checkpoint.
+	 */
+	private void recordHistory() {
+		CabCheckpoints checkpoints = folder.checkpoints;
+		if (checkpoints != null && checkpoints.wants(current + 1)) {
+			byte[] history = new byte[output.limit()];
+			System.arraycopy(output.array(), 0, history, 0, history.length);
+			checkpoints.put(new CabCheckpoints.State(current + 1, history));
+		}
+	}
+
+	/**
+	 * LZX and Quantum blocks are frames of one stream, the window, the models and the bit
+	 * stream carry over from block to block. Reading on with the next block continues the
+	 * stream, a later block is reached by decoding on, any other block by decoding from the
+	 * nearest checkpoint or the start of the folder.
+	 */
+	private ByteBuffer decodeFrames(int blockIndex, int type) throws IOException {
+		if (blockIndex != current) {
+			if (blockInput == null) {
+				windowBits = (folder.typeCompress >>> 8) & 0x1F;
+				blockInput = new CabBlockInput(folder, type == CabFolder.COMP_TYPE_QUANTUM);
+				if (type == CabFolder.COMP_TYPE_LZX) {
+					lzx = new LzxDecoder(windowBits);
+					lzx.reset(blockInput);
+				} else {
+					quantum = new QuantumDecoder(windowBits);
+					quantum.reset(blockInput);
+				}
+				current = -1;
+			}
+			// the next block the decoder can continue with, 0 after a reset
+			int resume = current < 0 || blockIndex < current ? 0 : current + 1;
+			CabCheckpoints checkpoints = folder.checkpoints;
+			CabCheckpoints.State state = checkpoints == null ? null : checkpoints.get(blockIndex);
+			if (state != null && state.block > resume) {
+				current = -1;
+				blockInput.seek(state.input);
+				if (lzx != null) {
+					lzx.copyFrom(state.lzx);
+				} else {
+					quantum.copyFrom(state.quantum);
+				}
+				current = state.block - 1;
+			} else if (resume == 0) {
+				blockInput.reset();
+				if (lzx != null) {
+					lzx.reset(blockInput);
+				} else {
+					quantum.reset(blockInput);
+				}
+				current = -1;
+			}
+			while (current < blockIndex) {
+				int index = current + 1;
+				current = -1;
+				int size = folder.cabData[index].cbUncomp;
+				ByteBuffer out = output(size);
+				if (lzx != null) {
+					lzx.decode(out.array(), size);
+				} else {
+					quantum.decode(out.array(), size);
+				}
+				out.limit(size);
+				current = index;
+				if (checkpoints != null && checkpoints.wants(index + 1)) {
+					recordFrames(checkpoints, index + 1);
+				}
+			}
+		}
+		output.position(0);
+		return output;
+	}
+
+	/**
+	 * Save a copy of the LZX or Quantum decoder, block is decoded next.
+	 */
+	private void recordFrames(CabCheckpoints checkpoints, int block) throws IOException {
+		if (lzx != null) {
+			LzxDecoder copy = new LzxDecoder(windowBits);
+			copy.copyFrom(lzx);
+			checkpoints.put(new CabCheckpoints.State(block, copy, null, blockInput.position()));
+		} else {
+			QuantumDecoder copy = new QuantumDecoder(windowBits);
+			copy.copyFrom(quantum);
+			checkpoints.put(new CabCheckpoints.State(block, null, copy, blockInput.position()));
+		}
+	}
+
+	/**
+	 * Compressed bytes of a block, see {@link CabFolder#read(int, ByteBuffer)}.
+	 */
+	private ByteBuffer read(int blockIndex) throws IOException {
+		return folder.read(blockIndex, input(folder.cabData[blockIndex].cbData));
+	}
+
+	private ByteBuffer input(int size) {
+		if (input == null || input.capacity() < size) {
+			input = ByteBuffer.allocate(Math.max(size, 0x8000));
+		}
+		input.clear();
+		return input;
+	}
+
+	private ByteBuffer output(int size) {
+		if (output == null || output.capacity() < size) {
+			output = ByteBuffer.allocate(Math.max(size, 0x8000));
+		}
+		output.clear();
+		return output;
+	}
+
+	/**
+	 * Release the Inflater, the decoder can still be used afterwards.
+	 */
+	void end() {
+		if (inflater != null) {
+			inflater.end();
+			inflater = null;
+		}
+	}
+}
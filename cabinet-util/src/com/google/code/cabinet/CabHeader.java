@@ -41,12 +41,12 @@ class CabHeader {
 	char[] signature = new char[4];
 	/** reserved , 4 bytes*/
 	int reserved1;
-	/** size of this cabinet file in bytes , 4 bytes*/
-	int cbCabinet;
+	/** size of this cabinet file in bytes , 4 bytes, unsigned*/
+	long cbCabinet;
 	/** reserved , 4 bytes*/
 	int reserved2;
-	/** offset of the first CFFILE entry , 4 bytes*/
-	int coffFiles;
+	/** offset of the first CFFILE entry , 4 bytes, unsigned*/
+	long coffFiles;
 	/** reserved , 4 bytes*/
 	int reserved3;
 	/** cabinet file format version, minor , 1 bytes*/
@@ -72,13 +72,13 @@ class CabHeader {
 	/** (optional) per-cabinet reserved area , 1*n bytes*/
 	short abReserve[];
 	/** (optional) name of previous cabinet file , 1*n bytes*/
-	short szCabinetPrev[];
+	String szCabinetPrev;
 	/** (optional) name of previous disk , 1*n bytes*/
-	short szDiskPrev[];
+	String szDiskPrev;
 	/** (optional) name of next cabinet file , 1*n bytes*/
-	short szCabinetNext[];
+	String szCabinetNext;
 	/** (optional) name of next disk , 1*n bytes*/
-	short szDiskNext[];
+	String szDiskNext;
 
 	boolean prevCabinet() {
 		return (flags & FLAG_PREV_CABINET) == FLAG_PREV_CABINET;
@@ -0,0 +1,121 @@
+/*
+  Copyright [2009] [allenhooo at gmail dot com]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.google.code.cabinet;
+
+/**
+ * Hash index from file name to the position in the CFFILE table.<p>
+ * The index is a single int array with open addressing, the names themselves stay in the
+ * CabFile entries, so it costs 8 to 16 bytes per file. It is immutable once built.
+ * When a name occurs more than once the first entry wins, like a scan of the table would.
+ */
+class CabNameIndex {
+	private final CabFile[] files;
+	private final boolean ignoreCase;
+	private final boolean normalizeSeparators;
+
+	/** file index + 1 per slot, 0 for a free slot; collisions probe the next slot */
+	private final int[] table;
+	private final int mask;
+
+	/**
+	 * @param ignoreCase compare names case-insensitively, like String.equalsIgnoreCase
+	 * @param normalizeSeparators treat '/' and '\' as the same character
+	 */
+	CabNameIndex(CabFile[] files, boolean ignoreCase, boolean normalizeSeparators) {
+		this.files = files;
+		this.ignoreCase = ignoreCase;
+		this.normalizeSeparators = normalizeSeparators;
+
+		// at most half full
+		int size = 2;
+		while (size < files.length * 2) {
+			size <<= 1;
+		}
+		table = new int[size];
+		mask = size - 1;
+		for (int i = 0; i < files.length; i++) {
+			String name = files[i].szName;
+			int slot = hash(name) & mask;
+			for (;;) {
+				int entry = table[slot];
+				if (entry == 0) {
+					table[slot] = i + 1;
+					break;
+				}
+				if (matches(files[entry - 1].szName, name)) {
+					break;
+				}
+				slot = (slot + 1) & mask;
+			}
+		}
+	}
+
+	/**
+	 * @return index of the file in the CFFILE table, -1 if there is no such file
+	 */
+	int indexOf(String name) {
+		int slot = hash(name) & mask;
+		for (;;) {
+			int entry = table[slot];
+			if (entry == 0) {
+				return -1;
+			}
+			if (matches(files[entry - 1].szName, name)) {
+				return entry - 1;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	private int hash(String s) {
+		int h;
+		if (!ignoreCase && !normalizeSeparators) {
+			h = s.hashCode();
+		} else {
+			h = 0;
+			for (int i = 0; i < s.length(); i++) {
+				h = 31 * h + fold(s.charAt(i));
+			}
+		}
+		// spread the high bits, the table is indexed with the low ones
+		return h ^ (h >>> 16);
+	}
+
+	private boolean matches(String a, String b) {
+		if (!ignoreCase && !normalizeSeparators) {
+			return a.equals(b);
+		}
+		if (a.length() != b.length()) {
+			return false;
+		}
+		for (int i = 0; i < a.length(); i++) {
+			if (fold(a.charAt(i)) != fold(b.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private char fold(char c) {
+		if (normalizeSeparators && c == '/') {
+			return '\\';
+		}
+		if (ignoreCase) {
+			return Character.toLowerCase(Character.toUpperCase(c));
+		}
+		return c;
+	}
+}
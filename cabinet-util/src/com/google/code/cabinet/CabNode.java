@@ -0,0 +1,101 @@
+/*
+  Copyright [2009] [allenhooo at gmail dot com]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.google.code.cabinet;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A file or directory in the tree of a {@link CabinetFileSystem}.<p>
+ * The tree is built once from the names in the CFFILE table, which are Windows paths:
+ * both '\' and '/' separate the parts, empty parts and "." or ".." are left out, so a name
+ * can not point outside the tree. Directories are implied by the names of the files below
+ * them, they have no entry of their own. When a name occurs more than once the first entry
+ * wins, as in {@link CabNameIndex}. The tree is immutable once built.
+ */
+class CabNode {
+	/** last part of the path, "" for the root */
+	final String name;
+	/** index of the file in the CFFILE table, -1 for a directory */
+	final int index;
+	/** children by name in sorted order, null for a file */
+	private final Map<String, CabNode> children;
+
+	private CabNode(String name, int index) {
+		this.name = name;
+		this.index = index;
+		this.children = index < 0 ? new TreeMap<String, CabNode>() : null;
+	}
+
+	/**
+	 * Build the tree of a CFFILE table.
+	 * @return the root directory
+	 */
+	static CabNode build(CabFile[] files) {
+		CabNode root = new CabNode("", -1);
+		for (int i = 0; i < files.length; i++) {
+			String[] parts = files[i].szName.split("[\\\\/]");
+			CabNode dir = root;
+			int last = parts.length - 1;
+			while (last >= 0 && !isName(parts[last])) {
+				last--;
+			}
+			for (int k = 0; k <= last && dir != null; k++) {
+				String part = parts[k];
+				if (!isName(part)) {
+					continue;
+				}
+				CabNode child = dir.children.get(part);
+				if (k == last) {
+					if (child == null) {
+						dir.children.put(part, new CabNode(part, i));
+					}
+				} else {
+					if (child == null) {
+						child = new CabNode(part, -1);
+						dir.children.put(part, child);
+					}
+					// below a file of the same name nothing is added
+					dir = child.children != null ? child : null;
+				}
+			}
+		}
+		return root;
+	}
+
+	private static boolean isName(String part) {
+		return part.length() > 0 && !part.equals(".") && !part.equals("..");
+	}
+
+	boolean isDirectory() {
+		return children != null;
+	}
+
+	/**
+	 * @return the child of a directory, null if there is none or this is a file
+	 */
+	CabNode get(String name) {
+		return children == null ? null : children.get(name);
+	}
+
+	/**
+	 * @return the children of a directory, sorted by name
+	 */
+	Collection<CabNode> list() {
+		return children.values();
+	}
+}
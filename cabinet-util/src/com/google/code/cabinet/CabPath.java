@@ -0,0 +1,375 @@
+/*
+  Copyright [2009] [allenhooo at gmail dot com]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.google.code.cabinet;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A path in a {@link CabinetFileSystem}. Parts are separated by '/', an absolute path
+ * starts with it. The string is kept without repeated or trailing separators.
+ */
+class CabPath implements Path {
+	private final CabinetFileSystem fs;
+	private final String path;
+	/** start of every name in path, computed when first needed */
+	private volatile int[] offsets;
+
+	CabPath(CabinetFileSystem fs, String path) {
+		this.fs = fs;
+		this.path = normalizeSeparators(path);
+	}
+
+	private static String normalizeSeparators(String s) {
+		if (s.indexOf("//") < 0 && (s.length() <= 1 || !s.endsWith("/"))) {
+			return s;
+		}
+		StringBuilder sb = new StringBuilder(s.length());
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c != '/' || sb.length() == 0 || sb.charAt(sb.length() - 1) != '/') {
+				sb.append(c);
+			}
+		}
+		if (sb.length() > 1 && sb.charAt(sb.length() - 1) == '/') {
+			sb.setLength(sb.length() - 1);
+		}
+		return sb.toString();
+	}
+
+	private int[] offsets() {
+		int[] o = offsets;
+		if (o == null) {
+			List<Integer> starts = new ArrayList<Integer>();
+			if (path.isEmpty()) {
+				// the empty path has one empty name
+				starts.add(0);
+			}
+			for (int i = 0; i < path.length(); i++) {
+				if (path.charAt(i) != '/' && (i == 0 || path.charAt(i - 1) == '/')) {
+					starts.add(i);
+				}
+			}
+			o = new int[starts.size()];
+			for (int i = 0; i < o.length; i++) {
+				o[i] = starts.get(i).intValue();
+			}
+			offsets = o;
+		}
+		return o;
+	}
+
+	/**
+	 * @return the names of the path
+	 */
+	String[] names() {
+		int n = getNameCount();
+		String[] names = new String[n];
+		for (int i = 0; i < n; i++) {
+			names[i] = name(i);
+		}
+		return names;
+	}
+
+	private String name(int i) {
+		int[] o = offsets();
+		int end = i + 1 < o.length ? o[i + 1] - 1 : path.length();
+		return path.substring(o[i], end);
+	}
+
+	static CabPath toCabPath(Path path) {
+		if (path == null) {
+			throw new NullPointerException();
+		}
+		if (!(path instanceof CabPath)) {
+			throw new ProviderMismatchException();
+		}
+		return (CabPath) path;
+	}
+
+	public CabinetFileSystem getFileSystem() {
+		return fs;
+	}
+
+	public boolean isAbsolute() {
+		return path.startsWith("/");
+	}
+
+	public CabPath getRoot() {
+		return isAbsolute() ? new CabPath(fs, "/") : null;
+	}
+
+	public CabPath getFileName() {
+		int n = getNameCount();
+		if (n == 0) {
+			return null;
+		}
+		if (n == 1 && !isAbsolute()) {
+			return this;
+		}
+		return new CabPath(fs, name(n - 1));
+	}
+
+	public CabPath getParent() {
+		int n = getNameCount();
+		if (n == 0) {
+			return null;
+		}
+		if (n == 1) {
+			return getRoot();
+		}
+		return new CabPath(fs, path.substring(0, offsets()[n - 1] - 1));
+	}
+
+	public int getNameCount() {
+		return offsets().length;
+	}
+
+	public CabPath getName(int index) {
+		if (index < 0 || index >= getNameCount()) {
+			throw new IllegalArgumentException();
+		}
+		return new CabPath(fs, name(index));
+	}
+
+	public CabPath subpath(int beginIndex, int endIndex) {
+		int n = getNameCount();
+		if (beginIndex < 0 || beginIndex >= n || endIndex > n || beginIndex >= endIndex) {
+			throw new IllegalArgumentException();
+		}
+		int[] o = offsets();
+		int end = endIndex < n ? o[endIndex] - 1 : path.length();
+		return new CabPath(fs, path.substring(o[beginIndex], end));
+	}
+
+	public boolean startsWith(Path other) {
+		if (!(other instanceof CabPath) || other.getFileSystem() != fs) {
+			return false;
+		}
+		CabPath p = (CabPath) other;
+		if (p.isAbsolute() != isAbsolute()) {
+			return false;
+		}
+		if (p.path.isEmpty()) {
+			return path.isEmpty();
+		}
+		int n = p.getNameCount();
+		if (n > getNameCount()) {
+			return false;
+		}
+		for (int i = 0; i < n; i++) {
+			if (!name(i).equals(p.name(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public boolean startsWith(String other) {
+		return startsWith(fs.getPath(other));
+	}
+
+	public boolean endsWith(Path other) {
+		if (!(other instanceof CabPath) || other.getFileSystem() != fs) {
+			return false;
+		}
+		CabPath p = (CabPath) other;
+		if (p.isAbsolute()) {
+			return equals(p);
+		}
+		if (p.path.isEmpty()) {
+			return path.isEmpty();
+		}
+		int n = p.getNameCount();
+		int m = getNameCount();
+		if (n > m) {
+			return false;
+		}
+		for (int i = 0; i < n; i++) {
+			if (!name(m - n + i).equals(p.name(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public boolean endsWith(String other) {
+		return endsWith(fs.getPath(other));
+	}
+
+	/**
+	 * Drop "." and resolve ".." against the name before it; ".." at the root is dropped,
+	 * at the start of a relative path it is kept.
+	 */
+	public CabPath normalize() {
+		String[] names = names();
+		List<String> kept = new ArrayList<String>(names.length);
+		for (String name : names) {
+			if (name.equals(".")) {
+				continue;
+			}
+			if (name.equals("..")) {
+				if (!kept.isEmpty() && !kept.get(kept.size() - 1).equals("..")) {
+					kept.remove(kept.size() - 1);
+					continue;
+				}
+				if (isAbsolute()) {
+					continue;
+				}
+			}
+			kept.add(name);
+		}
+		StringBuilder sb = new StringBuilder(path.length());
+		if (isAbsolute()) {
+			sb.append('/');
+		}
+		for (int i = 0; i < kept.size(); i++) {
+			if (i > 0) {
+				sb.append('/');
+			}
+			sb.append(kept.get(i));
+		}
+		String s = sb.toString();
+		return s.equals(path) ? this : new CabPath(fs, s);
+	}
+
+	public CabPath resolve(Path other) {
+		CabPath p = toCabPath(other);
+		if (p.isAbsolute() || path.isEmpty()) {
+			return p;
+		}
+		if (p.path.isEmpty()) {
+			return this;
+		}
+		return new CabPath(fs, path.endsWith("/") ? path + p.path : path + "/" + p.path);
+	}
+
+	public CabPath resolve(String other) {
+		return resolve(fs.getPath(other));
+	}
+
+	public Path resolveSibling(Path other) {
+		CabPath parent = getParent();
+		return parent == null ? toCabPath(other) : parent.resolve(other);
+	}
+
+	public Path resolveSibling(String other) {
+		return resolveSibling(fs.getPath(other));
+	}
+
+	public CabPath relativize(Path other) {
+		CabPath p = toCabPath(other);
+		if (p.isAbsolute() != isAbsolute()) {
+			throw new IllegalArgumentException("'other' is different type of Path");
+		}
+		if (equals(p)) {
+			return new CabPath(fs, "");
+		}
+		String[] a = path.isEmpty() ? new String[0] : names();
+		String[] b = p.path.isEmpty() ? new String[0] : p.names();
+		int common = 0;
+		while (common < a.length && common < b.length && a[common].equals(b[common])) {
+			common++;
+		}
+		StringBuilder sb = new StringBuilder();
+		for (int i = common; i < a.length; i++) {
+			sb.append(sb.length() == 0 ? ".." : "/..");
+		}
+		for (int i = common; i < b.length; i++) {
+			if (sb.length() > 0) {
+				sb.append('/');
+			}
+			sb.append(b[i]);
+		}
+		return new CabPath(fs, sb.toString());
+	}
+
+	/**
+	 * @return cab:&lt;URI of the cab file&gt;!&lt;absolute path&gt;
+	 */
+	public URI toUri() {
+		return fs.toUri(toAbsolutePath().path);
+	}
+
+	public CabPath toAbsolutePath() {
+		return isAbsolute() ? this : new CabPath(fs, "/" + path);
+	}
+
+	/**
+	 * There are no links, this is the absolute, normalized path of an existing file.
+	 */
+	public CabPath toRealPath(LinkOption... options) throws IOException {
+		CabPath p = toAbsolutePath().normalize();
+		if (fs.lookup(p) == null) {
+			throw new NoSuchFileException(toString());
+		}
+		return p;
+	}
+
+	/**
+	 * @throws UnsupportedOperationException always, a packed file is no java.io.File
+	 */
+	public File toFile() {
+		throw new UnsupportedOperationException();
+	}
+
+	public WatchKey register(WatchService watcher, WatchEvent.Kind<?>[] events, WatchEvent.Modifier... modifiers) {
+		throw new UnsupportedOperationException();
+	}
+
+	public WatchKey register(WatchService watcher, WatchEvent.Kind<?>... events) {
+		throw new UnsupportedOperationException();
+	}
+
+	public Iterator<Path> iterator() {
+		int n = getNameCount();
+		List<Path> names = new ArrayList<Path>(n);
+		for (int i = 0; i < n; i++) {
+			names.add(new CabPath(fs, name(i)));
+		}
+		return names.iterator();
+	}
+
+	public int compareTo(Path other) {
+		return path.compareTo(((CabPath) other).path);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof CabPath && ((CabPath) obj).fs == fs && ((CabPath) obj).path.equals(path);
+	}
+
+	@Override
+	public int hashCode() {
+		return path.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return path;
+	}
+}
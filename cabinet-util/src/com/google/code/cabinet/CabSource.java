@@ -0,0 +1,195 @@
+/*
+  Copyright [2009] [allenhooo at gmail dot com]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.google.code.cabinet;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Access to the bytes of a cab file.<br>
+ * Blocks are read with positional FileChannel reads, or sliced out of memory mapped
+ * regions of the file when mapping is enabled. Neither moves a shared file pointer,
+ * so any number of threads may read blocks at the same time.
+ */
+class CabSource {
+	/** size of one mapped region, a MappedByteBuffer can not exceed 2G */
+	private static final long REGION_SIZE = 1L << 30;
+	/** regions overlap by more than the largest CFDATA block, so a block never straddles two regions */
+	private static final long REGION_OVERLAP = 1L << 17;
+	/** size of a page, touching one byte of it maps the page in */
+	private static final int PAGE_SIZE = 4096;
+
+	/** one daemon thread for {@link #prefetch(long, int)}, it ends when there is nothing to do */
+	private static final ThreadPoolExecutor PREFETCHER = new ThreadPoolExecutor(1, 1, 10, TimeUnit.SECONDS,
+			new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "cab-prefetch");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+	static {
+		PREFETCHER.allowCoreThreadTimeOut(true);
+	}
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private volatile boolean mapped = false;
+	private MappedByteBuffer[] regions;
+
+	CabSource(RandomAccessFile file) {
+		this.file = file;
+		this.channel = file.getChannel();
+	}
+
+	/**
+	 * For sources which are not a file, they override the methods reading bytes.
+	 */
+	CabSource() {
+		this.file = null;
+		this.channel = null;
+	}
+
+	/**
+	 * Read length bytes at position.
+	 * @return buffer with position 0 and limit length, a slice of the mapped file when mapping is enabled
+	 */
+	ByteBuffer read(long position, int length) throws IOException {
+		if (mapped) {
+			return slice(position, length);
+		}
+		ByteBuffer b = ByteBuffer.allocate(length);
+		read(position, b);
+		b.flip();
+		return b;
+	}
+
+	/**
+	 * Fill the remaining bytes of dst with the bytes at position.
+	 */
+	void read(long position, ByteBuffer dst) throws IOException {
+		long start = position - dst.position();
+		while (dst.hasRemaining()) {
+			if (channel.read(dst, start + dst.position()) < 0) {
+				throw new EOFException("Invalid CAB file");
+			}
+		}
+	}
+
+	/**
+	 * Write count bytes at position to target with FileChannel.transferTo, the bytes need not
+	 * pass through the Java heap.
+	 */
+	void transferTo(long position, long count, WritableByteChannel target) throws IOException {
+		while (count > 0) {
+			long n = channel.transferTo(position, count, target);
+			if (n <= 0 && position >= channel.size()) {
+				throw new EOFException("Invalid CAB file");
+			}
+			position += n;
+			count -= n;
+		}
+	}
+
+	/**
+	 * Read length bytes at position ahead on a background thread, so that reading them later
+	 * does not wait for the disk. With mapping enabled the pages of the mapping are touched,
+	 * otherwise the bytes are read and dropped and stay in the cache of the operating system.
+	 * Bytes beyond the end of the file are ignored, so are errors: the read proper reports them.
+	 */
+	void prefetch(final long position, final int length) {
+		PREFETCHER.execute(new Runnable() {
+			public void run() {
+				try {
+					load(position, length);
+				} catch (IOException e) {
+					// closed meanwhile, or a bad file which the read will complain about
+				}
+			}
+		});
+	}
+
+	private void load(long position, int length) throws IOException {
+		long end = Math.min(position + length, channel.size());
+		if (mapped) {
+			for (long p = position; p < end;) {
+				int n = (int) Math.min(end - p, REGION_OVERLAP);
+				ByteBuffer b = slice(p, n);
+				for (int i = 0; i < n; i += PAGE_SIZE) {
+					b.get(i);
+				}
+				p += n;
+			}
+		} else {
+			ByteBuffer b = ByteBuffer.allocate(65536);
+			for (long p = position; p < end;) {
+				b.clear();
+				b.limit((int) Math.min(end - p, b.capacity()));
+				read(p, b);
+				p += b.limit();
+			}
+		}
+	}
+
+	private synchronized ByteBuffer slice(long position, int length) throws IOException {
+		if (regions == null) {
+			long size = file.length();
+			regions = new MappedByteBuffer[(int) ((size + REGION_SIZE - 1) / REGION_SIZE)];
+		}
+		int i = (int) (position / REGION_SIZE);
+		if (i >= regions.length) {
+			throw new EOFException("Invalid CAB file");
+		}
+		if (regions[i] == null) {
+			long start = i * REGION_SIZE;
+			long size = Math.min(file.length() - start, REGION_SIZE + REGION_OVERLAP);
+			regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+		}
+		ByteBuffer b = regions[i].duplicate();
+		int index = (int) (position - i * REGION_SIZE);
+		if (index + length > b.limit()) {
+			throw new EOFException("Invalid CAB file");
+		}
+		b.position(index);
+		b.limit(index + length);
+		return b.slice();
+	}
+
+	boolean isMapped() {
+		return mapped;
+	}
+
+	synchronized void setMapped(boolean mapped) {
+		this.mapped = mapped;
+		if (!mapped) {
+			regions = null;
+		}
+	}
+
+	void close() throws IOException {
+		setMapped(false);
+		file.close();
+	}
+}
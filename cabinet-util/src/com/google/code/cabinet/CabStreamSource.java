@@ -0,0 +1,164 @@
+/*
+  Copyright [2009] [allenhooo at gmail dot com]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.google.code.cabinet;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * The bytes of a cab read once, front to back, from a channel that cannot seek.<p>
+ * A window of the stream is kept in memory. Reads may go back within the window; bytes
+ * before the position passed to {@link #release(long)} are dropped when the window moves
+ * on, bytes skipped over are read and thrown away. Only one thread may use the source.
+ */
+class CabStreamSource extends CabSource {
+	private static final int MIN_CAPACITY = 0x10000;
+
+	private final ReadableByteChannel channel;
+	/** bytes of the stream from start on, size of them are valid */
+	private ByteBuffer window = ByteBuffer.allocate(MIN_CAPACITY);
+	private int size = 0;
+	/** stream offset of the first byte in window */
+	private long start = 0;
+	/** bytes before this offset are not read again */
+	private long mark = 0;
+
+	CabStreamSource(ReadableByteChannel channel) {
+		this.channel = channel;
+	}
+
+	@Override
+	ByteBuffer read(long position, int length) throws IOException {
+		ByteBuffer b = ByteBuffer.allocate(length);
+		read(position, b);
+		b.flip();
+		return b;
+	}
+
+	@Override
+	void read(long position, ByteBuffer dst) throws IOException {
+		int length = dst.remaining();
+		fill(position, length);
+		ByteBuffer b = window.duplicate();
+		b.limit((int) (position - start) + length);
+		b.position((int) (position - start));
+		dst.put(b);
+	}
+
+	@Override
+	void transferTo(long position, long count, WritableByteChannel target) throws IOException {
+		ByteBuffer b = ByteBuffer.allocate((int) Math.min(count, MIN_CAPACITY));
+		while (count > 0) {
+			b.clear();
+			b.limit((int) Math.min(count, b.capacity()));
+			read(position, b);
+			b.flip();
+			while (b.hasRemaining()) {
+				target.write(b);
+			}
+			position += b.limit();
+			count -= b.limit();
+		}
+	}
+
+	/**
+	 * Nothing to do, the bytes are read when they are needed.
+	 */
+	@Override
+	void prefetch(long position, int length) {
+	}
+
+	@Override
+	boolean isMapped() {
+		return false;
+	}
+
+	/**
+	 * A stream cannot be mapped, this is ignored.
+	 */
+	@Override
+	synchronized void setMapped(boolean mapped) {
+	}
+
+	/**
+	 * Declare the bytes before position as used up.
+	 */
+	void release(long position) {
+		mark = Math.max(mark, position);
+	}
+
+	/**
+	 * Make the window hold the bytes [position, position+length).
+	 */
+	private void fill(long position, int length) throws IOException {
+		if (position < start) {
+			throw new IOException("Cannot read backwards in a stream");
+		}
+		long end = position + length;
+		if (end <= start + size) {
+			return;
+		}
+		// keep the bytes from the mark on, drop or skip the others
+		long keep = Math.max(start, Math.min(mark, position));
+		if (keep >= start + size) {
+			discard(keep - (start + size));
+			start = keep;
+			size = 0;
+		} else if (keep > start) {
+			int drop = (int) (keep - start);
+			System.arraycopy(window.array(), drop, window.array(), 0, size - drop);
+			size -= drop;
+			start = keep;
+		}
+		if (end - start > window.capacity()) {
+			ByteBuffer b = ByteBuffer.allocate((int) Math.max(end - start, 2L * window.capacity()));
+			System.arraycopy(window.array(), 0, b.array(), 0, size);
+			window = b;
+		}
+		ByteBuffer b = window.duplicate();
+		b.position(size);
+		while (start + b.position() < end) {
+			if (channel.read(b) < 0) {
+				throw new EOFException("Invalid CAB file");
+			}
+		}
+		size = b.position();
+	}
+
+	/**
+	 * Read n bytes and throw them away.
+	 */
+	private void discard(long n) throws IOException {
+		ByteBuffer b = window.duplicate();
+		while (n > 0) {
+			b.clear();
+			b.limit((int) Math.min(n, b.capacity()));
+			int read = channel.read(b);
+			if (read < 0) {
+				throw new EOFException("Invalid CAB file");
+			}
+			n -= read;
+		}
+	}
+
+	@Override
+	void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,373 @@
+/*
+  Copyright [2009] [allenhooo at gmail dot com]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.google.code.cabinet;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * The CFFILE table of a single cab, for listing many cabs cheaply.<p>
+ * Only the header, the folder table and the file table are read; no data block is touched
+ * and nothing is kept open. The entries are stored column by column in int arrays, the names
+ * as the raw bytes of the cab packed into one array, so a directory costs about 28 bytes plus
+ * the name per file. Entries are addressed by index, names are decoded only when asked for:
+ * <pre>
+ * CabinetDirectory dir = new CabinetDirectory();
+ * for (File f : cabs) {
+ *     dir.read(f);
+ *     for (int i = 0; i &lt; dir.size(); i++) {
+ *         total += dir.getSize(i);
+ *     }
+ * }
+ * </pre>
+ * {@link #read(File)} reuses the arrays of the previous cab when they are large enough, so
+ * scanning a catalog allocates little beyond the names that are decoded.<p>
+ * Unlike {@link CabinetReader} the other cabinets of a set are not read, files continued
+ * from or in another cabinet are listed as the cab stores them, see {@link #getFolder(int)}.
+ * A directory is not thread safe.
+ */
+public class CabinetDirectory {
+	/** size of the fixed part of CFHEADER */
+	private static final int HEADER_SIZE = 36;
+	/** minimum number of bytes fetched from the cab file per read */
+	private static final int BUFFER_SIZE = 8192;
+	/** size of the fixed part of CFFILE */
+	private static final int ENTRY_SIZE = 16;
+	/** longest name, without the terminating null */
+	private static final int MAX_NAME = 255;
+
+	private int count = 0;
+	private int[] cbFile = new int[0];
+	private int[] uoffFolderStart = new int[0];
+	private int[] iFolder = new int[0];
+	private int[] date = new int[0];
+	private int[] time = new int[0];
+	private int[] attribs = new int[0];
+	/** names of all files, one after the other, without terminators */
+	private byte[] names = new byte[0];
+	/** start of every name in names, and the end of the last one */
+	private int[] nameStart = new int[1];
+
+	private int setID = 0;
+	private int iCabinet = 0;
+	private int cFolders = 0;
+
+	/** bytes read from the cab file, reused */
+	private byte[] buffer = new byte[BUFFER_SIZE];
+
+	/**
+	 * Create an empty directory, see {@link #read(File)}.
+	 */
+	public CabinetDirectory() {
+	}
+
+	/**
+	 * Create a directory with the file table of a cab.
+	 * @param filename cab file name
+	 * @throws IOException
+	 */
+	public CabinetDirectory(String filename) throws IOException {
+		read(new File(filename));
+	}
+
+	/**
+	 * Create a directory with the file table of a cab.
+	 * @param f cab file
+	 * @throws IOException
+	 */
+	public CabinetDirectory(File f) throws IOException {
+		read(f);
+	}
+
+	/**
+	 * Replace the entries with the file table of another cab.
+	 * The directory is empty if the cab cannot be read.
+	 * @param f cab file
+	 * @throws IOException
+	 */
+	public void read(File f) throws IOException {
+		count = 0;
+		RandomAccessFile file = new RandomAccessFile(f, "r");
+		try {
+			read(file);
+		} finally {
+			file.close();
+		}
+	}
+
+	private void read(RandomAccessFile file) throws IOException {
+		long length = file.length();
+		ByteBuffer b = load(file, 0, (int) Math.min(length, BUFFER_SIZE));
+		if (b.limit() < HEADER_SIZE || b.getInt(0) != 0x4643534D) {
+			throw new IOException("Invalid CAB file");
+		}
+		long coffFiles = b.getInt(16) & 0xFFFFFFFFL;
+		int folders = b.getShort(26) & 0xFFFF;
+		int files = b.getShort(28) & 0xFFFF;
+		int flags = b.getShort(30) & 0xFFFF;
+		int id = b.getShort(32) & 0xFFFF;
+		int cabinet = b.getShort(34) & 0xFFFF;
+
+		// the variable part of CFHEADER and the CFFOLDER entries
+		int pos = HEADER_SIZE;
+		int cbCFHeader = 0;
+		int cbCFFolder = 0;
+		if ((flags & CabHeader.FLAG_RESERVE_PRESENT) != 0) {
+			if (b.limit() < pos + 4) {
+				throw new EOFException("Invalid CAB file");
+			}
+			cbCFHeader = b.getShort(pos) & 0xFFFF;
+			cbCFFolder = b.get(pos + 2) & 0xFF;
+			pos += 4;
+		}
+		int strings = ((flags & CabHeader.FLAG_PREV_CABINET) != 0 ? 2 : 0)
+				+ ((flags & CabHeader.FLAG_NEXT_CABINET) != 0 ? 2 : 0);
+		int end = pos + cbCFHeader + strings * (MAX_NAME + 1) + folders * (8 + cbCFFolder);
+		if (end > b.limit() && length > b.limit()) {
+			b = load(file, 0, (int) Math.min(length, end));
+		}
+		pos += cbCFHeader;
+		for (int i = 0; i < strings; i++) {
+			pos = skipString(b, pos);
+		}
+		long tableEnd = Math.min(length, coffFiles + (long) files * (ENTRY_SIZE + MAX_NAME + 1));
+		for (int i = 0; i < folders; i++) {
+			if (b.limit() < pos + 8) {
+				throw new EOFException("Invalid CAB file");
+			}
+			// CFFILE entries end where the first CFDATA block begins
+			long coffCabStart = b.getInt(pos) & 0xFFFFFFFFL;
+			if (b.getShort(pos + 4) != 0 && coffCabStart > coffFiles) {
+				tableEnd = Math.min(tableEnd, coffCabStart);
+			}
+			pos += 8 + cbCFFolder;
+		}
+		if (tableEnd < coffFiles) {
+			throw new EOFException("Invalid CAB file");
+		}
+
+		// the CFFILE entries
+		b = load(file, coffFiles, (int) (tableEnd - coffFiles));
+		ensureCapacity(files, b.limit() - files * ENTRY_SIZE);
+		pos = 0;
+		int nameEnd = 0;
+		for (int i = 0; i < files; i++) {
+			if (b.limit() < pos + ENTRY_SIZE) {
+				throw new EOFException("Invalid CAB file");
+			}
+			cbFile[i] = b.getInt(pos);
+			uoffFolderStart[i] = b.getInt(pos + 4);
+			iFolder[i] = b.getShort(pos + 8) & 0xFFFF;
+			date[i] = b.getShort(pos + 10) & 0xFFFF;
+			time[i] = b.getShort(pos + 12) & 0xFFFF;
+			attribs[i] = b.getShort(pos + 14) & 0xFFFF;
+			pos += ENTRY_SIZE;
+			int x = pos;
+			int stop = Math.min(b.limit(), pos + MAX_NAME + 1);
+			while (x < stop && buffer[x] != 0) {
+				x++;
+			}
+			if (x == stop) {
+				throw new IOException(stop == b.limit() ? "Invalid CAB file" : "Bad file format");
+			}
+			System.arraycopy(buffer, pos, names, nameEnd, x - pos);
+			nameStart[i] = nameEnd;
+			nameEnd += x - pos;
+			pos = x + 1;
+		}
+		nameStart[files] = nameEnd;
+		count = files;
+		cFolders = folders;
+		setID = id;
+		iCabinet = cabinet;
+	}
+
+	/**
+	 * @return position after the null-terminated string at pos
+	 */
+	private static int skipString(ByteBuffer b, int pos) throws IOException {
+		int stop = Math.min(b.limit(), pos + MAX_NAME + 1);
+		for (int x = pos; x < stop; x++) {
+			if (b.get(x) == 0) {
+				return x + 1;
+			}
+		}
+		throw new IOException(stop == b.limit() ? "Invalid CAB file" : "Bad file format");
+	}
+
+	/**
+	 * Read length bytes at position into the buffer.
+	 * @return the bytes read, little-endian, position 0
+	 */
+	private ByteBuffer load(RandomAccessFile file, long position, int length) throws IOException {
+		if (buffer.length < length) {
+			buffer = new byte[length];
+		}
+		file.seek(position);
+		file.readFully(buffer, 0, length);
+		return ByteBuffer.wrap(buffer, 0, length).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Make room for files entries with nameBytes bytes of names, keeping the arrays if they are large enough.
+	 */
+	private void ensureCapacity(int files, int nameBytes) {
+		if (cbFile.length < files) {
+			cbFile = new int[files];
+			uoffFolderStart = new int[files];
+			iFolder = new int[files];
+			date = new int[files];
+			time = new int[files];
+			attribs = new int[files];
+			nameStart = new int[files + 1];
+		}
+		if (names.length < nameBytes) {
+			names = new byte[nameBytes];
+		}
+	}
+
+	private void check(int i) {
+		if (i < 0 || i >= count) {
+			throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + count);
+		}
+	}
+
+	/**
+	 * @return number of files in the cab
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * @return number of folders in the cab
+	 */
+	public int getFolderCount() {
+		return cFolders;
+	}
+
+	/**
+	 * @return identifier shared by the cabinets of a set
+	 */
+	public int getSetID() {
+		return setID;
+	}
+
+	/**
+	 * @return number of the cab in its set, 0 for the first one
+	 */
+	public int getCabinetIndex() {
+		return iCabinet;
+	}
+
+	/**
+	 * Decode the name of a file, as {@link CabinetReader#getFileNames()} does. A new String every call.
+	 * @return file name, a Windows path
+	 */
+	public String getName(int i) {
+		check(i);
+		int start = nameStart[i];
+		int length = nameStart[i + 1] - start;
+		String charset = (attribs[i] & CabFile.NAME_IS_UTF) != 0 ? "UTF-8" : "ISO-8859-1";
+		try {
+			return new String(names, start, length, charset);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @return length of the name in bytes, as stored in the cab
+	 */
+	public int getNameLength(int i) {
+		check(i);
+		return nameStart[i + 1] - nameStart[i];
+	}
+
+	/**
+	 * Copy the name as stored in the cab, in the code page of the system that made it or in
+	 * UTF-8 if attribute 0x80 is set. Nothing is allocated.
+	 * @param dst receives the name, must hold {@link #getNameLength(int)} bytes from off
+	 * @return length of the name
+	 */
+	public int getNameBytes(int i, byte[] dst, int off) {
+		int length = getNameLength(i);
+		System.arraycopy(names, nameStart[i], dst, off, length);
+		return length;
+	}
+
+	/**
+	 * @return uncompressed size in bytes
+	 */
+	public long getSize(int i) {
+		check(i);
+		return cbFile[i] & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * @return uncompressed offset of the file in its folder
+	 */
+	public long getFolderOffset(int i) {
+		check(i);
+		return uoffFolderStart[i] & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * @return index of the folder holding the file in this cab; 0xFFFD for a file continued from
+	 *         the previous cabinet, 0xFFFE for one continued in the next and 0xFFFF for both
+	 */
+	public int getFolder(int i) {
+		check(i);
+		return iFolder[i];
+	}
+
+	/**
+	 * @return MS-DOS date stamp
+	 */
+	public int getDosDate(int i) {
+		check(i);
+		return date[i];
+	}
+
+	/**
+	 * @return MS-DOS time stamp
+	 */
+	public int getDosTime(int i) {
+		check(i);
+		return time[i];
+	}
+
+	/**
+	 * @return modification time in milliseconds, see {@link CabinetEntry#getTime()}
+	 */
+	public long getTime(int i) {
+		check(i);
+		return CabinetEntry.toMillis(date[i], time[i]);
+	}
+
+	/**
+	 * @return attribute flags, see the Microsoft Cabinet File Format
+	 */
+	public int getAttributes(int i) {
+		check(i);
+		return attribs[i];
+	}
+}
@@ -0,0 +1,103 @@
+/*
+  Copyright [2009] [allenhooo at gmail dot com]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.google.code.cabinet;
+
+import java.util.Calendar;
+
+/**
+ * A file packed in a cab, as returned by {@link CabinetFolderInputStream#getNextEntry()}.
+ */
+public class CabinetEntry {
+	private final CabFile file;
+	/** index of the file in the CFFILE table */
+	final int index;
+
+	CabinetEntry(CabFile file, int index) {
+		this.file = file;
+		this.index = index;
+	}
+
+	/**
+	 * @return file name, a Windows path
+	 */
+	public String getName() {
+		return file.szName;
+	}
+
+	/**
+	 * @return uncompressed size in bytes
+	 */
+	public long getSize() {
+		return file.cbFile;
+	}
+
+	/**
+	 * @return index of the folder holding the file
+	 */
+	public int getFolder() {
+		return file.iFolder;
+	}
+
+	/**
+	 * @return modification time in milliseconds, decoded from the MS-DOS date and time stamp in local time
+	 */
+	public long getTime() {
+		return toMillis(file.date, file.time);
+	}
+
+	/**
+	 * Decode an MS-DOS date and time stamp in local time.
+	 */
+	static long toMillis(int date, int time) {
+		Calendar c = Calendar.getInstance();
+		c.clear();
+		c.set(((date >> 9) & 0x7F) + 1980, ((date >> 5) & 0x0F) - 1, date & 0x1F,
+				(time >> 11) & 0x1F, (time >> 5) & 0x3F, (time & 0x1F) * 2);
+		return c.getTimeInMillis();
+	}
+
+	/**
+	 * @return attribute flags, see the Microsoft Cabinet File Format
+	 */
+	public int getAttributes() {
+		return file.attribs;
+	}
+
+	public boolean isReadonly() {
+		return file.isReadonly();
+	}
+
+	public boolean isHidden() {
+		return file.isHidden();
+	}
+
+	public boolean isSystem() {
+		return file.isSystem();
+	}
+
+	public boolean isArch() {
+		return file.isArch();
+	}
+
+	public boolean isExec() {
+		return file.isExec();
+	}
+
+	@Override
+	public String toString() {
+		return file.szName;
+	}
+}
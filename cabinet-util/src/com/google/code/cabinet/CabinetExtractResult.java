@@ -0,0 +1,88 @@
+/*
+  Copyright [2009] [allenhooo at gmail dot com]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.google.code.cabinet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Outcome of extracting one packed file with {@link CabinetReader#extractAll(Path, java.util.concurrent.Executor)}.
+ */
+public class CabinetExtractResult {
+	private final String name;
+	private final Path path;
+	private long size;
+	private IOException exception;
+
+	CabinetExtractResult(String name, Path path) {
+		this.name = name;
+		this.path = path;
+	}
+
+	/**
+	 * @return name of the packed file, as returned by {@link CabinetReader#getFileNames()}
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the extracted file, null if the name can not be mapped below the target directory
+	 */
+	public Path getPath() {
+		return path;
+	}
+
+	/**
+	 * @return the extracted file on disk, null if the name can not be mapped below the target directory
+	 * @throws UnsupportedOperationException if the target directory is not on the default file system
+	 */
+	public File getFile() {
+		return path == null ? null : path.toFile();
+	}
+
+	/**
+	 * @return number of bytes written
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * @return the error which stopped the extraction of this file, null on success
+	 */
+	public IOException getException() {
+		return exception;
+	}
+
+	public boolean isSuccess() {
+		return exception == null;
+	}
+
+	void setSize(long size) {
+		this.size = size;
+	}
+
+	void setException(IOException exception) {
+		this.exception = exception;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
@@ -0,0 +1,355 @@
+/*
+  Copyright [2009] [allenhooo at gmail dot com]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.google.code.cabinet;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.ClosedFileSystemException;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.UserPrincipalLookupService;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * A cab mounted as a read-only file system, see {@link CabinetFileSystemProvider}.<p>
+ * The cab is opened once with a {@link CabinetReader}, which the file system keeps until it
+ * is closed; the directory tree is built from the file names at the same time. Paths use '/'
+ * as separator, the backslashes of the names in the cab become directories. Files are read
+ * with the streams and channels of the reader, so any number of them may be open at once.
+ * The basic and dos attribute views are supported, see {@link CabFileAttributes}.
+ */
+public class CabinetFileSystem extends FileSystem {
+	private static final Set<String> VIEWS = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList("basic", "dos")));
+
+	private final CabinetFileSystemProvider provider;
+	/** the cab file, absolute */
+	private final Path cab;
+	private final CabinetReader reader;
+	private final CabNode root;
+	/** time of the directories */
+	private final FileTime time;
+	private final CabFileStore store;
+	private volatile boolean open = true;
+
+	/**
+	 * Open a cab, the other cabinets of its set are read as by {@link CabinetReader#CabinetReader(java.io.File)}.
+	 * @param env "verifyChecksums" and "memoryMapped" as Boolean or String, "blockCacheSize" as
+	 * Number or String set the options of the reader of the same names; other keys are ignored
+	 */
+	CabinetFileSystem(CabinetFileSystemProvider provider, Path cab, Map<String, ?> env) throws IOException {
+		this.provider = provider;
+		this.cab = cab;
+		this.time = Files.getLastModifiedTime(cab);
+		this.reader = new CabinetReader(cab.toFile());
+		boolean done = false;
+		try {
+			if (env.containsKey("verifyChecksums")) {
+				reader.setVerifyChecksums(Boolean.parseBoolean(String.valueOf(env.get("verifyChecksums"))));
+			}
+			if (env.containsKey("memoryMapped")) {
+				reader.setMemoryMapped(Boolean.parseBoolean(String.valueOf(env.get("memoryMapped"))));
+			}
+			if (env.containsKey("blockCacheSize")) {
+				reader.setBlockCacheSize(Long.parseLong(String.valueOf(env.get("blockCacheSize"))));
+			}
+			this.root = CabNode.build(reader.getFiles());
+			this.store = new CabFileStore(cab);
+			done = true;
+		} finally {
+			if (!done) {
+				reader.close();
+			}
+		}
+	}
+
+	@Override
+	public CabinetFileSystemProvider provider() {
+		return provider;
+	}
+
+	/**
+	 * Close the reader. Streams and channels opened before fail from now on.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (!open) {
+			return;
+		}
+		open = false;
+		provider.removeFileSystem(cab, this);
+		reader.close();
+	}
+
+	@Override
+	public boolean isOpen() {
+		return open;
+	}
+
+	@Override
+	public boolean isReadOnly() {
+		return true;
+	}
+
+	@Override
+	public String getSeparator() {
+		return "/";
+	}
+
+	@Override
+	public Iterable<Path> getRootDirectories() {
+		return Collections.<Path> singletonList(new CabPath(this, "/"));
+	}
+
+	@Override
+	public Iterable<FileStore> getFileStores() {
+		return Collections.<FileStore> singletonList(store);
+	}
+
+	@Override
+	public Set<String> supportedFileAttributeViews() {
+		return VIEWS;
+	}
+
+	@Override
+	public CabPath getPath(String first, String... more) {
+		if (more.length == 0) {
+			return new CabPath(this, first);
+		}
+		StringBuilder sb = new StringBuilder(first);
+		for (String s : more) {
+			if (s.length() > 0) {
+				if (sb.length() > 0) {
+					sb.append('/');
+				}
+				sb.append(s);
+			}
+		}
+		return new CabPath(this, sb.toString());
+	}
+
+	/**
+	 * Supports the "glob" and "regex" syntax of {@link FileSystem#getPathMatcher(String)},
+	 * matched against the string of the path.
+	 */
+	@Override
+	public PathMatcher getPathMatcher(String syntaxAndPattern) {
+		int colon = syntaxAndPattern.indexOf(':');
+		if (colon <= 0) {
+			throw new IllegalArgumentException();
+		}
+		String syntax = syntaxAndPattern.substring(0, colon);
+		String input = syntaxAndPattern.substring(colon + 1);
+		String regex;
+		if (syntax.equalsIgnoreCase("glob")) {
+			regex = globToRegex(input);
+		} else if (syntax.equalsIgnoreCase("regex")) {
+			regex = input;
+		} else {
+			throw new UnsupportedOperationException("Syntax '" + syntax + "' not recognized");
+		}
+		final Pattern pattern = Pattern.compile(regex);
+		return new PathMatcher() {
+			public boolean matches(Path path) {
+				return pattern.matcher(path.toString()).matches();
+			}
+		};
+	}
+
+	/**
+	 * Translate a glob: '*' matches within a name, '**' across names, '?' one character
+	 * of a name, [...] and [!...] a character class, {a,b} one of the patterns, '\' escapes.
+	 */
+	static String globToRegex(String glob) {
+		StringBuilder sb = new StringBuilder("^");
+		boolean inGroup = false;
+		for (int i = 0; i < glob.length(); i++) {
+			char c = glob.charAt(i);
+			switch (c) {
+			case '\\':
+				if (++i == glob.length()) {
+					throw new PatternSyntaxException("No character to escape", glob, i - 1);
+				}
+				escape(sb, glob.charAt(i));
+				break;
+			case '*':
+				if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+					sb.append(".*");
+					i++;
+				} else {
+					sb.append("[^/]*");
+				}
+				break;
+			case '?':
+				sb.append("[^/]");
+				break;
+			case '[':
+				i = appendClass(sb, glob, i);
+				break;
+			case '{':
+				if (inGroup) {
+					throw new PatternSyntaxException("Cannot nest groups", glob, i);
+				}
+				sb.append("(?:(?:");
+				inGroup = true;
+				break;
+			case '}':
+				if (inGroup) {
+					sb.append("))");
+					inGroup = false;
+				} else {
+					sb.append('}');
+				}
+				break;
+			case ',':
+				sb.append(inGroup ? ")|(?:" : ",");
+				break;
+			default:
+				escape(sb, c);
+			}
+		}
+		if (inGroup) {
+			throw new PatternSyntaxException("Missing '}'", glob, glob.length() - 1);
+		}
+		return sb.append('$').toString();
+	}
+
+	/**
+	 * Append the character class starting at glob[start], which is '['.
+	 * @return index of the closing ']'
+	 */
+	private static int appendClass(StringBuilder sb, String glob, int start) {
+		int i = start + 1;
+		if (i < glob.length() && (glob.charAt(i) == '!' || glob.charAt(i) == '^')) {
+			sb.append("[^/");
+			i++;
+		} else {
+			sb.append('[');
+		}
+		for (; i < glob.length(); i++) {
+			char c = glob.charAt(i);
+			if (c == ']') {
+				sb.append(']');
+				return i;
+			}
+			if (c == '/') {
+				throw new PatternSyntaxException("Explicit 'name separator' in class", glob, i);
+			}
+			if (c == '\\' || c == '[' || c == '&') {
+				sb.append('\\');
+			}
+			sb.append(c);
+		}
+		throw new PatternSyntaxException("Missing ']'", glob, glob.length() - 1);
+	}
+
+	private static void escape(StringBuilder sb, char c) {
+		if (".^$+{}[]|()\\*?".indexOf(c) >= 0) {
+			sb.append('\\');
+		}
+		sb.append(c);
+	}
+
+	/**
+	 * @throws UnsupportedOperationException always
+	 */
+	@Override
+	public UserPrincipalLookupService getUserPrincipalLookupService() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * @throws UnsupportedOperationException always, nothing changes in a cab
+	 */
+	@Override
+	public WatchService newWatchService() throws IOException {
+		throw new UnsupportedOperationException();
+	}
+
+	void ensureOpen() {
+		if (!open) {
+			throw new ClosedFileSystemException();
+		}
+	}
+
+	/**
+	 * @return the node of a path, null if there is none
+	 */
+	CabNode lookup(CabPath path) {
+		ensureOpen();
+		CabNode node = root;
+		for (String name : path.toAbsolutePath().normalize().names()) {
+			node = node.get(name);
+			if (node == null) {
+				return null;
+			}
+		}
+		return node;
+	}
+
+	/**
+	 * @throws NoSuchFileException if there is no such file or directory
+	 */
+	CabNode find(CabPath path) throws NoSuchFileException {
+		CabNode node = lookup(path);
+		if (node == null) {
+			throw new NoSuchFileException(path.toString());
+		}
+		return node;
+	}
+
+	CabFileAttributes readAttributes(CabPath path) throws IOException {
+		CabNode node = find(path);
+		return new CabFileAttributes(node.isDirectory() ? null : reader.getFiles()[node.index], time);
+	}
+
+	CabinetReader getReader() {
+		return reader;
+	}
+
+	CabFileStore getFileStore() {
+		return store;
+	}
+
+	/**
+	 * @param path absolute path in the cab
+	 * @return cab:&lt;URI of the cab file&gt;!path
+	 */
+	URI toUri(String path) {
+		try {
+			return new URI(CabinetFileSystemProvider.SCHEME, cab.toUri().toString() + "!" + path, null);
+		} catch (URISyntaxException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return cab.toString();
+	}
+}
@@ -0,0 +1,456 @@
+/*
+  Copyright [2009] [allenhooo at gmail dot com]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.google.code.cabinet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.AccessMode;
+import java.nio.file.CopyOption;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystemAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.LinkOption;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.ReadOnlyFileSystemException;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.DosFileAttributeView;
+import java.nio.file.attribute.DosFileAttributes;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.FileAttributeView;
+import java.nio.file.spi.FileSystemProvider;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * The "cab" file system provider, installed through META-INF/services. It mounts a cab as a
+ * read-only {@link CabinetFileSystem}, the way the zip provider mounts jars:
+ * <pre>
+ * URI uri = URI.create("cab:" + cabFile.toURI() + "!/");
+ * FileSystem fs = FileSystems.newFileSystem(uri, Collections.&lt;String, Object&gt; emptyMap());
+ * Files.walk(fs.getPath("/")) ...
+ * Files.copy(fs.getPath("/dir/a.txt"), target);
+ * </pre>
+ * A URI is "cab:" followed by the URI of the cab file, then "!" and the absolute path in the
+ * cab. A file system opened by {@link #newFileSystem(URI, Map)} is kept by the provider until
+ * it is closed. {@link #getPath(URI)} opens a cab which is not open yet and then reuses its
+ * reader, so looking up many paths parses the cab once; of the cabs opened that way only the
+ * {@value #MAX_PATH_FILESYSTEMS} used last stay open, the one used least recently is closed when
+ * another is opened. Close one early with <code>getFileSystem(uri).close()</code>.
+ * {@link #newFileSystem(Path, Map)} opens a file system which the caller owns and the
+ * provider does not keep.<p>
+ * The cab must be on the default file system, as {@link CabinetReader} reads a java.io.File.
+ */
+public class CabinetFileSystemProvider extends FileSystemProvider {
+	static final String SCHEME = "cab";
+	/** file systems opened by {@link #getPath(URI)} which are kept open */
+	static final int MAX_PATH_FILESYSTEMS = 16;
+
+	/** open file systems by the real path of the cab */
+	private final Map<Path, CabinetFileSystem> filesystems = new HashMap<Path, CabinetFileSystem>();
+	/** the file systems of filesystems opened by getPath, the least recently used first */
+	private final LinkedHashMap<Path, CabinetFileSystem> pathFilesystems = new LinkedHashMap<Path, CabinetFileSystem>(16, 0.75f, true);
+
+	@Override
+	public String getScheme() {
+		return SCHEME;
+	}
+
+	/**
+	 * @return the real path of the cab file of a cab: URI
+	 */
+	private Path cabPath(URI uri) throws IOException {
+		if (!SCHEME.equalsIgnoreCase(uri.getScheme())) {
+			throw new IllegalArgumentException("URI scheme is not '" + SCHEME + "'");
+		}
+		String spec = uri.getSchemeSpecificPart();
+		int sep = spec.indexOf("!/");
+		if (sep >= 0) {
+			spec = spec.substring(0, sep);
+		}
+		try {
+			return Paths.get(new URI(spec)).toRealPath();
+		} catch (URISyntaxException e) {
+			throw new IllegalArgumentException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * @return the path in the cab of a cab: URI, "/" if it has none
+	 */
+	private static String entryPath(URI uri) {
+		String spec = uri.getSchemeSpecificPart();
+		int sep = spec.indexOf("!/");
+		return sep < 0 ? "/" : spec.substring(sep + 1);
+	}
+
+	/**
+	 * Open the cab of a URI and keep it for {@link #getFileSystem(URI)} and {@link #getPath(URI)}.
+	 * @param env see {@link CabinetFileSystem}
+	 * @throws FileSystemAlreadyExistsException if the cab is open already
+	 */
+	@Override
+	public CabinetFileSystem newFileSystem(URI uri, Map<String, ?> env) throws IOException {
+		Path cab = cabPath(uri);
+		synchronized (filesystems) {
+			if (filesystems.containsKey(cab)) {
+				throw new FileSystemAlreadyExistsException(cab.toString());
+			}
+			CabinetFileSystem fs = new CabinetFileSystem(this, cab, env);
+			filesystems.put(cab, fs);
+			return fs;
+		}
+	}
+
+	/**
+	 * Open a cab file as a file system which is not kept by the provider, for
+	 * {@link java.nio.file.FileSystems#newFileSystem(Path, ClassLoader)}.
+	 * @param env see {@link CabinetFileSystem}
+	 * @throws UnsupportedOperationException if the file is not a cab
+	 */
+	@Override
+	public CabinetFileSystem newFileSystem(Path path, Map<String, ?> env) throws IOException {
+		Path cab = path.toRealPath();
+		FileChannel channel = FileChannel.open(cab);
+		try {
+			ByteBuffer magic = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+			while (magic.hasRemaining()) {
+				if (channel.read(magic) < 0) {
+					throw new UnsupportedOperationException();
+				}
+			}
+			if (magic.getInt(0) != 0x4643534D) {
+				throw new UnsupportedOperationException();
+			}
+		} finally {
+			channel.close();
+		}
+		return new CabinetFileSystem(this, cab, env);
+	}
+
+	/**
+	 * @throws FileSystemNotFoundException if the cab of the URI is not open
+	 */
+	@Override
+	public CabinetFileSystem getFileSystem(URI uri) {
+		CabinetFileSystem fs;
+		try {
+			fs = getOpenFileSystem(cabPath(uri));
+		} catch (IOException e) {
+			throw new FileSystemNotFoundException(e.getMessage());
+		}
+		if (fs == null) {
+			throw new FileSystemNotFoundException(uri.toString());
+		}
+		return fs;
+	}
+
+	private CabinetFileSystem getOpenFileSystem(Path cab) {
+		synchronized (filesystems) {
+			return filesystems.get(cab);
+		}
+	}
+
+	/**
+	 * The path of a URI. A cab which is not open yet is opened with the default options and
+	 * kept, later paths of the same cab use the same reader. Of the cabs opened here, the
+	 * least recently used is closed when more than {@value #MAX_PATH_FILESYSTEMS} are open;
+	 * its paths then fail with ClosedFileSystemException, and the next getPath opens it again.
+	 * @throws FileSystemNotFoundException if the cab can not be opened
+	 */
+	@Override
+	public Path getPath(URI uri) {
+		CabinetFileSystem fs;
+		List<CabinetFileSystem> evicted = new ArrayList<CabinetFileSystem>();
+		try {
+			Path cab = cabPath(uri);
+			synchronized (filesystems) {
+				fs = filesystems.get(cab);
+				if (fs == null) {
+					fs = new CabinetFileSystem(this, cab, Collections.<String, Object> emptyMap());
+					filesystems.put(cab, fs);
+					pathFilesystems.put(cab, fs);
+					// forget the evicted ones now, they are closed outside the lock
+					Iterator<Map.Entry<Path, CabinetFileSystem>> it = pathFilesystems.entrySet().iterator();
+					while (pathFilesystems.size() > MAX_PATH_FILESYSTEMS) {
+						Map.Entry<Path, CabinetFileSystem> eldest = it.next();
+						it.remove();
+						filesystems.remove(eldest.getKey());
+						evicted.add(eldest.getValue());
+					}
+				} else {
+					// touch it
+					pathFilesystems.get(cab);
+				}
+			}
+		} catch (IOException e) {
+			throw new FileSystemNotFoundException(uri + ": " + e.getMessage());
+		}
+		for (CabinetFileSystem old : evicted) {
+			try {
+				old.close();
+			} catch (IOException e) {
+				// the reader is gone either way
+			}
+		}
+		return fs.getPath(entryPath(uri));
+	}
+
+	/**
+	 * Forget a file system which was closed.
+	 */
+	void removeFileSystem(Path cab, CabinetFileSystem fs) {
+		synchronized (filesystems) {
+			if (filesystems.get(cab) == fs) {
+				filesystems.remove(cab);
+				pathFilesystems.remove(cab);
+			}
+		}
+	}
+
+	/**
+	 * @return the node of a regular file, for reading
+	 */
+	private CabNode findFile(CabPath path, Set<? extends OpenOption> options) throws IOException {
+		for (OpenOption option : options) {
+			if (option == StandardOpenOption.WRITE || option == StandardOpenOption.APPEND
+					|| option == StandardOpenOption.CREATE || option == StandardOpenOption.CREATE_NEW
+					|| option == StandardOpenOption.TRUNCATE_EXISTING || option == StandardOpenOption.DELETE_ON_CLOSE) {
+				throw new ReadOnlyFileSystemException();
+			}
+		}
+		CabNode node = path.getFileSystem().find(path);
+		if (node.isDirectory()) {
+			throw new FileSystemException(path.toString(), null, "Is a directory");
+		}
+		return node;
+	}
+
+	/**
+	 * Open a file as a channel of {@link CabinetReader#getFileChannel(String)}.
+	 */
+	@Override
+	public SeekableByteChannel newByteChannel(Path path, Set<? extends OpenOption> options, FileAttribute<?>... attrs)
+			throws IOException {
+		CabPath p = CabPath.toCabPath(path);
+		if (attrs.length > 0) {
+			throw new ReadOnlyFileSystemException();
+		}
+		CabNode node = findFile(p, options);
+		return p.getFileSystem().getReader().getFileChannel(node.index);
+	}
+
+	/**
+	 * Open a file as a {@link CabinetInputStream}, which copies out with transferTo and readAllBytes
+	 * without the detour through a channel.
+	 */
+	@Override
+	public InputStream newInputStream(Path path, OpenOption... options) throws IOException {
+		CabPath p = CabPath.toCabPath(path);
+		Set<OpenOption> set = new HashSet<OpenOption>();
+		Collections.addAll(set, options);
+		CabNode node = findFile(p, set);
+		return p.getFileSystem().getReader().getFileInputStream(node.index);
+	}
+
+	@Override
+	public DirectoryStream<Path> newDirectoryStream(Path dir, final DirectoryStream.Filter<? super Path> filter)
+			throws IOException {
+		final CabPath p = CabPath.toCabPath(dir);
+		CabNode node = p.getFileSystem().find(p);
+		if (!node.isDirectory()) {
+			throw new NotDirectoryException(p.toString());
+		}
+		final List<CabNode> children = new ArrayList<CabNode>(node.list());
+		return new DirectoryStream<Path>() {
+			private boolean closed = false;
+			private boolean iterated = false;
+
+			public Iterator<Path> iterator() {
+				if (closed) {
+					throw new IllegalStateException("Directory stream closed");
+				}
+				if (iterated) {
+					throw new IllegalStateException("Iterator already obtained");
+				}
+				iterated = true;
+				return new Iterator<Path>() {
+					private int i = 0;
+					private Path next;
+
+					public boolean hasNext() {
+						while (next == null && !closed && i < children.size()) {
+							Path child = p.resolve(children.get(i++).name);
+							try {
+								if (filter == null || filter.accept(child)) {
+									next = child;
+								}
+							} catch (IOException e) {
+								throw new DirectoryIteratorException(e);
+							}
+						}
+						return next != null;
+					}
+
+					public Path next() {
+						if (!hasNext()) {
+							throw new NoSuchElementException();
+						}
+						Path n = next;
+						next = null;
+						return n;
+					}
+
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+
+			public void close() {
+				closed = true;
+			}
+		};
+	}
+
+	@Override
+	public void createDirectory(Path dir, FileAttribute<?>... attrs) throws IOException {
+		throw new ReadOnlyFileSystemException();
+	}
+
+	@Override
+	public void delete(Path path) throws IOException {
+		throw new ReadOnlyFileSystemException();
+	}
+
+	/**
+	 * Nothing can be copied into a cab; copying out of one to another file system is done by
+	 * {@link java.nio.file.Files#copy(Path, Path, CopyOption...)} with {@link #newInputStream(Path, OpenOption...)}.
+	 */
+	@Override
+	public void copy(Path source, Path target, CopyOption... options) throws IOException {
+		throw new ReadOnlyFileSystemException();
+	}
+
+	@Override
+	public void move(Path source, Path target, CopyOption... options) throws IOException {
+		throw new ReadOnlyFileSystemException();
+	}
+
+	@Override
+	public boolean isSameFile(Path path, Path path2) throws IOException {
+		CabPath p = CabPath.toCabPath(path);
+		if (p.equals(path2)) {
+			return true;
+		}
+		if (!(path2 instanceof CabPath) || path2.getFileSystem() != p.getFileSystem()) {
+			return false;
+		}
+		return p.getFileSystem().find(p) == p.getFileSystem().find((CabPath) path2);
+	}
+
+	@Override
+	public boolean isHidden(Path path) throws IOException {
+		CabPath p = CabPath.toCabPath(path);
+		return p.getFileSystem().readAttributes(p).isHidden();
+	}
+
+	@Override
+	public FileStore getFileStore(Path path) throws IOException {
+		CabPath p = CabPath.toCabPath(path);
+		p.getFileSystem().find(p);
+		return p.getFileSystem().getFileStore();
+	}
+
+	/**
+	 * Files can be read, nothing can be written or executed.
+	 */
+	@Override
+	public void checkAccess(Path path, AccessMode... modes) throws IOException {
+		CabPath p = CabPath.toCabPath(path);
+		p.getFileSystem().find(p);
+		for (AccessMode mode : modes) {
+			if (mode != AccessMode.READ) {
+				throw new AccessDeniedException(p.toString());
+			}
+		}
+	}
+
+	@Override
+	public <V extends FileAttributeView> V getFileAttributeView(Path path, Class<V> type, LinkOption... options) {
+		CabPath p = CabPath.toCabPath(path);
+		if (type == BasicFileAttributeView.class || type == DosFileAttributeView.class) {
+			return type.cast(new CabFileAttributeView(p, type == DosFileAttributeView.class));
+		}
+		return null;
+	}
+
+	@Override
+	public <A extends BasicFileAttributes> A readAttributes(Path path, Class<A> type, LinkOption... options)
+			throws IOException {
+		CabPath p = CabPath.toCabPath(path);
+		if (type == BasicFileAttributes.class || type == DosFileAttributes.class) {
+			return type.cast(p.getFileSystem().readAttributes(p));
+		}
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * @param attributes [view:]names, view "basic" or "dos", names comma separated or "*"
+	 */
+	@Override
+	public Map<String, Object> readAttributes(Path path, String attributes, LinkOption... options) throws IOException {
+		CabPath p = CabPath.toCabPath(path);
+		String view = "basic";
+		String names = attributes;
+		int colon = attributes.indexOf(':');
+		if (colon >= 0) {
+			view = attributes.substring(0, colon);
+			names = attributes.substring(colon + 1);
+		}
+		if (!p.getFileSystem().supportedFileAttributeViews().contains(view)) {
+			throw new UnsupportedOperationException("View '" + view + "' not available");
+		}
+		return p.getFileSystem().readAttributes(p).toMap(view, names);
+	}
+
+	@Override
+	public void setAttribute(Path path, String attribute, Object value, LinkOption... options) throws IOException {
+		throw new ReadOnlyFileSystemException();
+	}
+}
@@ -0,0 +1,172 @@
+/*
+  Copyright [2009] [allenhooo at gmail dot com]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.google.code.cabinet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads all files of one cab folder in a single pass, in the manner of
+ * {@link java.util.zip.ZipInputStream}.<p>
+ * The folder's data blocks are walked once in order, so a block shared by
+ * several files is decompressed only once. Call {@link #getNextEntry()} to move to
+ * the next file, then read its bytes until -1 is returned.
+ */
+public class CabinetFolderInputStream extends InputStream {
+	private final CabFolder folder;
+	private final CabFolderDecoder decoder;
+	/** files of the folder, in uoffFolderStart order */
+	private final CabFile[] files;
+	/** index of each file in the CFFILE table */
+	private final int[] indexes;
+	/** next file returned by getNextEntry */
+	private int next = 0;
+
+	private CabinetEntry entry;
+	/** folder offset just past the current entry */
+	private long entryEnd;
+	/** folder offset of the next byte to read */
+	private long pos;
+
+	/** block holding pos */
+	private int blockIndex = 0;
+	/** folder offset of the first byte of blockIndex */
+	private long blockStart = 0;
+	/** uncompressed data of blockIndex, null until needed */
+	private ByteBuffer block;
+
+	private final byte[] single = new byte[1];
+	private boolean closed = false;
+
+	CabinetFolderInputStream(CabFolder folder, CabFile[] files, int[] indexes) {
+		this.folder = folder;
+		this.decoder = new CabFolderDecoder(folder);
+		this.files = files;
+		this.indexes = indexes;
+	}
+
+	private void ensureOpen() throws IOException {
+		if (closed) {
+			throw new IOException("Stream closed");
+		}
+	}
+
+	/**
+	 * Position the stream at the beginning of the next file of the folder.
+	 * @return the next file, null when all files of the folder have been returned
+	 * @throws IOException
+	 */
+	public CabinetEntry getNextEntry() throws IOException {
+		ensureOpen();
+		if (next >= files.length) {
+			entry = null;
+			return null;
+		}
+		folder.load();
+		CabFile f = files[next];
+		entry = new CabinetEntry(f, indexes[next]);
+		next++;
+		seek(f.uoffFolderStart);
+		entryEnd = f.uoffFolderStart + f.cbFile;
+		return entry;
+	}
+
+	/** Move pos to target without decompressing the blocks in between. */
+	private void seek(long target) {
+		if (blockIndex >= folder.cCFData || target < blockStart
+				|| target >= folder.blockStart[blockIndex + 1]) {
+			int index = folder.blockAt(target);
+			blockIndex = index < 0 ? folder.cCFData : index;
+			blockStart = folder.blockStart[blockIndex];
+			block = null;
+		}
+		pos = target;
+	}
+
+	@Override
+	public int read() throws IOException {
+		return read(single, 0, 1) < 1 ? -1 : single[0] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		ensureOpen();
+		if (off < 0 || len < 0 || len > b.length - off) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (entry == null || pos >= entryEnd) {
+			return -1;
+		}
+		folder.checkPrevVolume();
+		int n = 0;
+		while (n < len && pos < entryEnd && blockIndex < folder.cCFData) {
+			int size = folder.cabData[blockIndex].cbUncomp;
+			int index = (int) (pos - blockStart);
+			if (index >= size) {
+				blockStart += size;
+				blockIndex++;
+				block = null;
+				continue;
+			}
+			if (block == null) {
+				block = decoder.decode(blockIndex);
+			}
+			int count = (int) Math.min(Math.min(len - n, size - index), entryEnd - pos);
+			block.position(index);
+			block.get(b, off + n, count);
+			n += count;
+			pos += count;
+		}
+		if (n == 0 && len > 0) {
+			folder.checkNextVolume();
+			return -1;
+		}
+		return n;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		ensureOpen();
+		if (entry == null || n <= 0) {
+			return 0;
+		}
+		long start = pos;
+		seek(pos + Math.min(Math.max(entryEnd - pos, 0), n));
+		return pos - start;
+	}
+
+	/**
+	 * @return bytes of the current entry which can be read without decompressing another block
+	 */
+	@Override
+	public int available() throws IOException {
+		ensureOpen();
+		if (entry == null || block == null) {
+			return 0;
+		}
+		long inBlock = blockStart + folder.cabData[blockIndex].cbUncomp - pos;
+		return (int) Math.max(0, Math.min(inBlock, entryEnd - pos));
+	}
+
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		block = null;
+		decoder.end();
+		super.close();
+	}
+}
@@ -15,33 +15,53 @@
  */
 package com.google.code.cabinet;
 
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * This class implements an input stream for reading files in the CAB file format.
- * Includes support for both MSZIP compressed and uncompressed entries。<p>
+ * Includes support for MSZIP, LZX and Quantum compressed and uncompressed entries。<p>
+ * The stream can {@link #seek(long)} to any position of the file, the data block holding it
+ * is found with a binary search over the block offsets of the folder. Only that block is
+ * decompressed, for LZX, Quantum and MSZIP blocks with history this may mean decoding
+ * from the start of the folder.<p>
+ * {@link #transferTo(OutputStream)} and {@link #readAllBytes()} hand out the decompressed
+ * blocks without an intermediate buffer, the bytes of an uncompressed file are
+ * {@link #transferTo(WritableByteChannel) transferred} straight from the cab file.
  * 
  * @author allenhooo at gmail.com 2009-12-24
  */
-class CabinetInputStream extends InputStream {
+public class CabinetInputStream extends InputStream {
 
 	/** 文件所在的folder */
 	private final CabFolder folder;
 	/** 文件 */
 	private final CabFile file;
+	/** 解压器 */
+	private final CabFolderDecoder decoder;
+	/** 文件在folder中的起始位置 */
+	private final long start;
+	/** 文件长度 */
+	private final long size;
+
+	/** bytes copied at a time from blocks which are not backed by an array */
+	private static final int CHUNK_SIZE = 8192;
+	/** largest array the JVM can allocate */
+	private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
 
 	/**当前文件读取指针*/
-	private int pos = 0;
-	/**当前文件指针pos所在数据数据块*/
-	private int blockIndex = 0;
-	/**当前文件指针pos所在的数据块的数据byte*/
-	private int dataIndex = 0;
+	private long pos = 0;
+	/** mark()保存的文件指针 */
+	private long markPos = 0;
 	
 	/**当前解压后的数据，只保存当前指针所在的block解压后数据*/
-	private byte[] currentUnCompData;
-	/**当前解压数据的block索引*/
-	private int uncompBlock=0;
+	private ByteBuffer currentUnCompData;
+	/**当前解压数据的block索引, -1表示没有*/
+	private int uncompBlock = -1;
 	
 	private boolean closed = false;
 
@@ -51,161 +71,297 @@ class CabinetInputStream extends InputStream {
 		}
 	}
 	
-	public CabinetInputStream(CabFolder folder, CabFile file) {
+	CabinetInputStream(CabFolder folder, CabFile file) {
 		this.folder = folder;
 		this.file = file;
-
-		//初始化cab读取流，确定文件所在的起始位置指针
-		int offstart = file.uoffFolderStart;
-		for (int i = 0; i < folder.cCFData; i++) {
-			int ablen = folder.cabData[i].cbUncomp;
-
-			if (pos + ablen < offstart) {
-				// 加上整个block也不能达到offstart
-				pos += ablen;
-				blockIndex++;
-				continue;
-			} else {
-				int diff = offstart - pos;
-				pos += diff;
-				dataIndex += diff;
-				break;
-			}
-		}
+		this.decoder = new CabFolderDecoder(folder);
+		this.start = file.uoffFolderStart;
+		this.size = file.cbFile;
 	}
 
 	@Override
 	public int read() throws IOException {
 		ensureOpen();
-		byte[] buffer = new byte[1];
-		int read = read(buffer);
-		
-		if(read <1){
+		if (pos >= size) {
 			return -1;
 		}
-		int data = buffer[0];
-		if (data < 0) {
-			data = 256 + data;
+		long offset = start + pos;
+		ByteBuffer block = getBlock(offset);
+		if (block == null) {
+			folder.checkNextVolume();
+			return -1;
 		}
+		int data = block.get((int) (offset - folder.blockStart[uncompBlock])) & 0xFF;
+		pos++;
 		return data;
 	}
 
-	private boolean EOF() {
-		return ((pos - file.uoffFolderStart > file.cbFile)
-				|| blockIndex >= folder.cCFData);
+	/**
+	 * Uncompressed data of the block holding a folder offset, decompressed when needed.
+	 * @return null if the folder ends before offset
+	 */
+	private ByteBuffer getBlock(long offset) throws IOException {
+		int index = uncompBlock;
+		if (index < 0 || offset < folder.blockStart[index] || offset >= folder.blockStart[index + 1]) {
+			index = folder.blockAt(offset);
+			if (index < 0) {
+				return null;
+			}
+			uncompBlock = -1;
+			currentUnCompData = decoder.decode(index);
+			uncompBlock = index;
+		}
+		return currentUnCompData;
 	}
 
-	private byte[] getCurrentBlock() throws IOException {
-		if (blockIndex >= folder.cCFData) {
-			return null;
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		ensureOpen();
+		if (off < 0 || len < 0 || len > b.length - off) {
+			throw new IndexOutOfBoundsException();
 		}
-		if (uncompBlock != blockIndex || currentUnCompData == null) {
-			currentUnCompData = folder.getUnCompressedData(blockIndex);
-			uncompBlock = blockIndex;
+		if (len == 0) {
+			return 0;
 		}
-		return currentUnCompData;
+		int read_len = 0;
+		while (read_len < len && pos < size) {
+			long offset = start + pos;
+			ByteBuffer block = getBlock(offset);
+			if (block == null) {
+				// folder数据不足
+				if (read_len == 0) {
+					folder.checkNextVolume();
+				}
+				break;
+			}
+			//当前块内的位置
+			int dataIndex = (int) (offset - folder.blockStart[uncompBlock]);
+			//取需要读取字节数, 当前块剩余字节数和文件剩余字节数的最小值
+			int to_read = (int) Math.min(Math.min(len - read_len, block.limit() - dataIndex), size - pos);
+			block.position(dataIndex);
+			block.get(b, off + read_len, to_read);
+			read_len += to_read;
+			pos += to_read;
+		}
+		return read_len == 0 ? -1 : read_len;
 	}
 
-	private int getCurrentBlockSize() {
-		return folder.cabData[blockIndex].cbUncomp;
+	/**
+	 * Read up to len bytes, blocking until len bytes are read or the end of the file is reached.<p>
+	 * Overrides the InputStream method of Java 9 and later.
+	 * @return number of bytes read, 0 at the end of the file
+	 */
+	public int readNBytes(byte[] b, int off, int len) throws IOException {
+		// read() only stops early at the end of the file
+		int n = read(b, off, len);
+		return n < 0 ? 0 : n;
 	}
 
-	@Override
-	public int read(byte[] b) throws IOException {
-		return read(b, 0, b.length);
+	/**
+	 * Read up to len bytes, blocking until len bytes are read or the end of the file is reached.<p>
+	 * Overrides the InputStream method of Java 11 and later.
+	 * @return the bytes read, an array of exactly that size
+	 */
+	public byte[] readNBytes(int len) throws IOException {
+		ensureOpen();
+		if (len < 0) {
+			throw new IllegalArgumentException("len < 0");
+		}
+		long remaining = Math.max(0, size - pos);
+		byte[] b = new byte[(int) Math.min(len, remaining)];
+		int n = readNBytes(b, 0, b.length);
+		if (n < b.length) {
+			byte[] t = new byte[n];
+			System.arraycopy(b, 0, t, 0, n);
+			b = t;
+		}
+		return b;
 	}
 
-	public int read(byte[] b, int off, int len) throws IOException {
-		return read(b, off, len, false);
-	}
-	
-	public int read(byte[] b, int off, int len, boolean skip) throws IOException {
+	/**
+	 * Read the rest of the file into an array allocated once, the size of the file is known.<p>
+	 * Overrides the InputStream method of Java 9 and later.
+	 * @return the remaining bytes of the file
+	 * @throws OutOfMemoryError if the rest of the file does not fit in an array
+	 */
+	public byte[] readAllBytes() throws IOException {
 		ensureOpen();
-		 if(len == 0) {
-			    return 0;
-		}
-		if (len > b.length - off) {
-			throw new IOException("Parameter error");
+		if (size - pos > MAX_ARRAY_SIZE) {
+			throw new OutOfMemoryError("Required array size too large");
 		}
-		if (EOF()) {
-			return -1;
+		return readNBytes(MAX_ARRAY_SIZE);
+	}
+
+	/**
+	 * Write the rest of the file to out. The decompressed blocks are handed to out as they
+	 * are, without copying them into another buffer first. An uncompressed file written to a
+	 * FileOutputStream takes the path of {@link #transferTo(WritableByteChannel)}.<p>
+	 * Overrides the InputStream method of Java 9 and later.
+	 * @return number of bytes written
+	 */
+	public long transferTo(OutputStream out) throws IOException {
+		ensureOpen();
+		if (out instanceof FileOutputStream && isStored()) {
+			return transferTo(((FileOutputStream) out).getChannel());
 		}
-		int read_len = 0;
-		for (int i = blockIndex; i < folder.cCFData; i++) {
-			if (EOF()) {
+		long count = 0;
+		byte[] chunk = null;
+		while (pos < size) {
+			long offset = start + pos;
+			ByteBuffer block = getBlock(offset);
+			if (block == null) {
+				if (count == 0) {
+					folder.checkNextVolume();
+				}
 				break;
 			}
-			if (len <= read_len) {
-				//读取完成
-				break;
+			int dataIndex = (int) (offset - folder.blockStart[uncompBlock]);
+			int n = (int) Math.min(block.limit() - dataIndex, size - pos);
+			if (block.hasArray()) {
+				out.write(block.array(), block.arrayOffset() + dataIndex, n);
+			} else {
+				// a block of a memory mapped cab or an off-heap cache
+				if (chunk == null) {
+					chunk = new byte[CHUNK_SIZE];
+				}
+				block.position(dataIndex);
+				for (int left = n; left > 0;) {
+					int k = Math.min(left, chunk.length);
+					block.get(chunk, 0, k);
+					out.write(chunk, 0, k);
+					left -= k;
+				}
 			}
+			pos += n;
+			count += n;
+		}
+		return count;
+	}
 
-			//计算当前块剩余字节数量
-			int block_remain_len = getCurrentBlockSize() - dataIndex;
-			if (block_remain_len <= 0) {
-				//无剩余数据，跳转到下一个 block
-				blockIndex++;
-				dataIndex = 0;
-				continue;
-			}
-			//计算文件剩余字节数
-			int file_remain = file.cbFile- (pos - file.uoffFolderStart);
-			if(file_remain <= 0){
-				if(read_len == 0){
-					return -1;
-				}else{
-					//前面有读取过数据
-					return read_len;
+	/**
+	 * Write the rest of the file to target.<p>
+	 * The bytes of an uncompressed file are moved from the cab file to the channel with
+	 * FileChannel.transferTo, which the operating system may do without copying them
+	 * into the JVM at all. This is skipped when checksums are verified, as the bytes have to be read then.
+	 * Compressed files are written block by block as they are decompressed.
+	 * @return number of bytes written
+	 */
+	public long transferTo(WritableByteChannel target) throws IOException {
+		ensureOpen();
+		boolean stored = isStored();
+		long count = 0;
+		while (pos < size) {
+			long offset = start + pos;
+			int index = folder.blockAt(offset);
+			if (index < 0) {
+				if (count == 0) {
+					folder.checkNextVolume();
 				}
+				break;
 			}
-			int to_read = len - read_len;//余下需要读取的字节数
-			byte[] block = null;
-			if(!skip){
-				block = getCurrentBlock();
-			}
-			if (to_read <= block_remain_len) {
-				//取文件剩余字节数和需要读取字节数的最小值
-				to_read = Math.min(file_remain, to_read);
-				if(!skip){
-					System.arraycopy(block, dataIndex, b, read_len, to_read);
-				}
-				read_len += to_read;
-				dataIndex+= to_read;
-				pos+=to_read;
+			int dataIndex = (int) (offset - folder.blockStart[index]);
+			int n = (int) Math.min(folder.blockStart[index + 1] - offset, size - pos);
+			if (stored) {
+				folder.transferTo(index, dataIndex, n, target);
 			} else {
-				//取文件剩余字节数和当前块剩余字节数的最小值
-				block_remain_len = Math.min(file_remain, block_remain_len);
-				if(!skip){
-					System.arraycopy(block, dataIndex, b, read_len,block_remain_len);
+				ByteBuffer block = getBlock(offset).duplicate();
+				block.limit(dataIndex + n);
+				block.position(dataIndex);
+				while (block.hasRemaining()) {
+					target.write(block);
 				}
-				blockIndex++;
-				dataIndex = 0;
-				read_len += block_remain_len;
-				pos+=block_remain_len;
 			}
+			pos += n;
+			count += n;
 		}
-		
-		return read_len;
+		return count;
+	}
+
+	/**
+	 * @return true if the bytes of the file can be taken from the cab file as they are
+	 */
+	private boolean isStored() {
+		return (folder.typeCompress & CabFolder.COMP_MASK_TYPE) == CabFolder.COMP_TYPE_NONE && !folder.verify;
 	}
 
+	/**
+	 * Skip n bytes without decompressing anything.
+	 */
 	@Override
 	public long skip(long n) throws IOException {
-		if (n < 0) {
-            throw new IllegalArgumentException("negative skip length");
-        }
-		if(n>Integer.MAX_VALUE){
-			throw new IOException("不支持long");
+		ensureOpen();
+		if (n <= 0 || pos >= size) {
+			return 0;
+		}
+		long skipped = Math.min(n, size - pos);
+		pos += skipped;
+		return skipped;
+	}
+
+	/**
+	 * Move the read position. The block holding the new position is decompressed by the next read.
+	 * @param position offset from the start of the file, a position at or beyond the end reads end of file
+	 * @throws IOException
+	 */
+	public void seek(long position) throws IOException {
+		ensureOpen();
+		if (position < 0) {
+			throw new IOException("Negative seek offset");
 		}
-		return read(null, 0, (int)n, true);
+		pos = position;
+	}
+
+	/**
+	 * @return offset of the next byte read, from the start of the file
+	 */
+	public long position() {
+		return pos;
+	}
+
+	/**
+	 * @return uncompressed size of the file
+	 */
+	public long size() {
+		return size;
 	}
 
+	@Override
+	public boolean markSupported() {
+		return true;
+	}
+
+	@Override
+	public synchronized void mark(int readlimit) {
+		markPos = pos;
+	}
+
+	@Override
+	public synchronized void reset() throws IOException {
+		seek(markPos);
+	}
+
+	/**
+	 * @return bytes of the file which can be read without decompressing another block,
+	 * the rest of the current block but no more than the rest of the file
+	 */
 	@Override
 	public int available() throws IOException {
-		return file.cbFile;
+		ensureOpen();
+		int index = uncompBlock;
+		if (index < 0 || pos >= size) {
+			return 0;
+		}
+		long offset = start + pos;
+		if (offset < folder.blockStart[index] || offset >= folder.blockStart[index + 1]) {
+			return 0;
+		}
+		return (int) Math.min(folder.blockStart[index + 1] - offset, size - pos);
 	}
 	@Override
 	public void close() throws IOException {
 		closed = true;
+		currentUnCompData = null;
+		decoder.end();
 		super.close();
 	}
 }
@@ -15,19 +15,50 @@
  */
 package com.google.code.cabinet;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
 
 /**
  * Reading Microsoft cabinet file format
  * <p>
- * please refer Microsoft Cabinet File Format。 Cabinet files support a number of compression formats, we support only MSZIP and uncompressed.<p>
- * <b>WARNING:</b>Checksums are not supported。
+ * please refer Microsoft Cabinet File Format。 Cabinet files support a number of compression formats, we support MSZIP, LZX, Quantum and uncompressed.<p>
+ * <b>WARNING:</b>Checksums of the data blocks are only verified after {@link #setVerifyChecksums(boolean)}。<p>
+ * A CabinetReader may be shared between threads: data blocks are fetched with positional reads,
+ * so streams returned by {@link #getFileInputStream(String)} can be consumed concurrently.
+ * Each stream itself must only be used by one thread at a time.<p>
+ * A cab of a set spanning several cabinets is read with the other cabinets of the set, which
+ * are looked up by name in the same directory. Folders continued from one cabinet in the next
+ * are read as one folder, see {@link #getVolumes()}. To read a cab from a stream without
+ * a temporary file, see {@link CabinetStreamReader}; to mount it as a java.nio.file
+ * FileSystem, see {@link CabinetFileSystemProvider}.
  * @author allenhooo at gmail.com 2009-12-25
  */
 public class CabinetReader {
+	/** minimum number of bytes fetched from the cab file per read while parsing */
+	private static final int BUFFER_SIZE = 8192;
+	/** buffer size used when copying packed files to disk */
+	private static final int COPY_BUFFER_SIZE = 65536;
+
 	/** speed or memory */
 	private boolean speed_first = false;
 
@@ -35,11 +66,34 @@ public class CabinetReader {
 	private CabFolder[] folders = null;
 	private CabFile[] files = null;
 
+	/** the cab file being parsed */
 	private RandomAccessFile file = null;
+	/** block access to the cab file being parsed */
+	private CabSource source = null;
+	/** block access to every cabinet of the set */
+	private CabSource[] sources;
+	/** the cabinets of the set, in order */
+	private File[] volumes;
 
 	private String[] filename;
 
-	private int offset = 0;
+	/** name lookup for {@link #getFileInputStream(String)}, built on first use */
+	private volatile CabNameIndex nameIndex = null;
+	private boolean ignoreCase = false;
+	private boolean normalizeSeparators = false;
+	/** data blocks between two decoder checkpoints, 0 for none */
+	private int checkpointInterval = 0;
+	/** uncompressed blocks shared by all streams, null when disabled */
+	private CabBlockCache cache = null;
+	private boolean verifyChecksums = false;
+
+	/** position in the cab file being parsed */
+	private long offset = 0;
+
+	/** bytes of the cab file read in bulk, little-endian; holds the region starting at bufferStart */
+	private ByteBuffer buffer;
+	/** file offset of the first byte in buffer */
+	private long bufferStart = 0;
 
 	/**
 	 * Create a cabinet reader with the filename.
@@ -56,19 +110,55 @@ public class CabinetReader {
 	 * @throws IOException
 	 */
 	public CabinetReader(File f) throws IOException {
-		file = new RandomAccessFile(f, "r");
-		readHeader();
-		readCabFolder();
-		readCabFile();
-		readData();
+		LinkedList<Volume> set = new LinkedList<Volume>();
+		set.add(readVolume(f));
+		Set<File> seen = new HashSet<File>();
+		seen.add(f.getCanonicalFile());
+		String missingPrev = null;
+		String missingNext = null;
+		try {
+			while (set.getFirst().head.prevCabinet()) {
+				Volume v = readVolume(set.getFirst(), set.getFirst().head.szCabinetPrev, seen);
+				if (v == null) {
+					missingPrev = set.getFirst().head.szCabinetPrev;
+					break;
+				}
+				set.addFirst(v);
+			}
+			while (set.getLast().head.nextCabinet()) {
+				Volume v = readVolume(set.getLast(), set.getLast().head.szCabinetNext, seen);
+				if (v == null) {
+					missingNext = set.getLast().head.szCabinetNext;
+					break;
+				}
+				set.addLast(v);
+			}
+		} catch (IOException e) {
+			for (Volume v : set) {
+				v.source.close();
+			}
+			throw e;
+		}
+		merge(set, missingPrev, missingNext);
 	}
 
 	public void close() throws IOException {
-		file.close();
+		setBlockCacheSize(0);
+		for (int i = 0; i < sources.length; i++) {
+			sources[i].close();
+		}
+	}
+
+	/**
+	 * @return the cab files read, in the order of the cabinet set; just the one opened unless it belongs to a set
+	 */
+	public File[] getVolumes() {
+		return volumes.clone();
 	}
 
 	/**
 	 * Fetch file name which packed in the cab file。
+	 * See {@link CabinetDirectory} to list many cabs without opening readers.
 	 * @return
 	 */
 	public String[] getFileNames() {
@@ -83,27 +173,432 @@ public class CabinetReader {
 
 	/**
 	 * Create a InputStream with the packed file name.<p>
-	 * The file name can be fetched with {@link #getFileNames()} method
+	 * The file name can be fetched with {@link #getFileNames()} method.
+	 * Names are looked up in a hash index, see {@link #setIgnoreCase(boolean)} and
+	 * {@link #setNormalizeSeparators(boolean)} for looser matching.<p>
+	 * The stream is a {@link CabinetInputStream}, which can {@link CabinetInputStream#seek(long) seek}.
 	 * @param name 
 	 * @return 
 	 * @throws IOException
 	 */
 	public InputStream getFileInputStream(String name) throws IOException {
-		int i = 0;
-		for (; i < files.length; i++) {
-			if (name.equals(files[i].szName)){
-				return readFile(files[i]);
+		int i = indexOf(name);
+		if (i < 0) {
+			throw new IOException("Invalid file entry");
+		}
+		return readFile(files[i]);
+	}
+
+	/**
+	 * Open a packed file as a read-only SeekableByteChannel, for code which moves around
+	 * in a file rather than reading it once.<p>
+	 * The file is looked up as by {@link #getFileInputStream(String)}. Reads go straight into
+	 * the buffer passed in, heap or direct: the bytes of an uncompressed file are read from the
+	 * cab file at the offset of the position, those of a compressed file are copied out of the
+	 * data block holding the position, which is decoded as by {@link CabinetInputStream#seek(long)}.
+	 * Writing throws NonWritableChannelException.
+	 * @param name
+	 * @return channel at position 0, its size is the uncompressed size of the file
+	 * @throws IOException
+	 */
+	public SeekableByteChannel getFileChannel(String name) throws IOException {
+		int i = indexOf(name);
+		if (i < 0) {
+			throw new IOException("Invalid file entry");
+		}
+		return getFileChannel(i);
+	}
+
+	/**
+	 * Open the packed file at index in {@link #getFileNames()} as a channel.
+	 */
+	SeekableByteChannel getFileChannel(int index) throws IOException {
+		CabFolder folder = folders[files[index].iFolder];
+		folder.checkPrevVolume();
+		folder.load();
+		return new CabEntryChannel(folder, files[index]);
+	}
+
+	/**
+	 * Open the packed file at index in {@link #getFileNames()} as a stream.
+	 */
+	InputStream getFileInputStream(int index) throws IOException {
+		return readFile(files[index]);
+	}
+
+	/**
+	 * @return the CFFILE entries of the set, in the order of {@link #getFileNames()}; not to be modified
+	 */
+	CabFile[] getFiles() {
+		return files;
+	}
+
+	/**
+	 * @return index of the packed file in {@link #getFileNames()}, -1 if there is none
+	 */
+	private int indexOf(String name) {
+		CabNameIndex index = nameIndex;
+		if (index == null) {
+			synchronized (this) {
+				index = nameIndex;
+				if (index == null) {
+					index = new CabNameIndex(files, ignoreCase, normalizeSeparators);
+					nameIndex = index;
+				}
+			}
+		}
+		return index.indexOf(name);
+	}
+
+	/**
+	 * @return number of folders in the cab; every folder is an independent compression stream
+	 */
+	public int getFolderCount() {
+		return folders.length;
+	}
+
+	/**
+	 * Create a stream which reads all files of a folder in one pass.<p>
+	 * Each data block of the folder is decompressed only once, this is the fastest way to
+	 * read every file of a folder.
+	 * @param folder folder index, 0 to {@link #getFolderCount()}-1
+	 * @return stream positioned before the first file of the folder
+	 */
+	public CabinetFolderInputStream getFolderInputStream(int folder) {
+		List<Integer> entries = new ArrayList<Integer>();
+		for (int i = 0; i < files.length; i++) {
+			if (files[i].iFolder == folder) {
+				entries.add(i);
+			}
+		}
+		Integer[] sorted = entries.toArray(new Integer[entries.size()]);
+		Arrays.sort(sorted, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				long x = files[a].uoffFolderStart;
+				long y = files[b].uoffFolderStart;
+				return x < y ? -1 : (x == y ? 0 : 1);
+			}
+		});
+		CabFile[] folderFiles = new CabFile[sorted.length];
+		int[] indexes = new int[sorted.length];
+		for (int i = 0; i < sorted.length; i++) {
+			indexes[i] = sorted[i];
+			folderFiles[i] = files[sorted[i]];
+		}
+		return new CabinetFolderInputStream(folders[folder], folderFiles, indexes);
+	}
+
+	/**
+	 * Extract all packed files below the target directory.<p>
+	 * Every folder of the cab is an independent compression stream, so one task per folder is
+	 * handed to the executor. Each task writes the files of its folder in the order they are
+	 * stored. The method returns when all tasks have finished.
+	 * @param target directory to extract to, created when missing
+	 * @param executor runs the folder tasks, e.g. a thread pool with one thread per core
+	 * @return one result per packed file, in the order of {@link #getFileNames()}
+	 * @throws IOException
+	 * @throws InterruptedException
+	 * @see #extractAll(Path, Executor)
+	 */
+	public CabinetExtractResult[] extractAll(File target, Executor executor)
+			throws IOException, InterruptedException {
+		return extractAll(target.toPath(), executor);
+	}
+
+	/**
+	 * Extract all packed files below the target directory, which may be on any file system.<p>
+	 * Every folder of the cab is an independent compression stream, so one task per folder is
+	 * handed to the executor. Each task writes the files of its folder in the order they are
+	 * stored. The method returns when all tasks have finished.
+	 * @param target directory to extract to, created when missing
+	 * @param executor runs the folder tasks, e.g. a thread pool with one thread per core
+	 * @return one result per packed file, in the order of {@link #getFileNames()}
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public CabinetExtractResult[] extractAll(Path target, Executor executor)
+			throws IOException, InterruptedException {
+		CabinetExtractResult[] results = new CabinetExtractResult[files.length];
+		boolean[] used = new boolean[folders.length];
+		for (int i = 0; i < files.length; i++) {
+			results[i] = new CabinetExtractResult(files[i].szName, targetFile(target, files[i].szName));
+			if (files[i].iFolder < folders.length) {
+				used[files[i].iFolder] = true;
+			} else {
+				results[i].setException(new IOException("Invalid folder index " + files[i].iFolder));
+			}
+		}
+
+		List<FutureTask<Object>> tasks = new ArrayList<FutureTask<Object>>();
+		for (int i = 0; i < folders.length; i++) {
+			if (!used[i]) {
+				continue;
+			}
+			FutureTask<Object> task = new FutureTask<Object>(new FolderExtractor(i, results));
+			executor.execute(task);
+			tasks.add(task);
+		}
+		for (FutureTask<Object> task : tasks) {
+			try {
+				task.get();
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof IOException) {
+					throw (IOException) cause;
+				}
+				if (cause instanceof RuntimeException) {
+					throw (RuntimeException) cause;
+				}
+				if (cause instanceof Error) {
+					throw (Error) cause;
+				}
+				throw new IOException("Extraction failed", cause);
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Map a packed file name (Windows path) below target.
+	 * @return null when the name escapes target
+	 */
+	private static Path targetFile(Path target, String name) {
+		Path f = target;
+		for (String part : name.split("[\\\\/]")) {
+			if (part.length() == 0 || ".".equals(part)) {
+				continue;
+			}
+			if ("..".equals(part)) {
+				return null;
+			}
+			f = f.resolve(part);
+		}
+		return f == target ? null : f;
+	}
+
+	/** Writes the files of one folder in uoffFolderStart order. */
+	private class FolderExtractor implements Callable<Object> {
+		private final int folder;
+		private final CabinetExtractResult[] results;
+
+		FolderExtractor(int folder, CabinetExtractResult[] results) {
+			this.folder = folder;
+			this.results = results;
+		}
+
+		public Object call() throws IOException {
+			byte[] b = new byte[COPY_BUFFER_SIZE];
+			CabinetFolderInputStream in = getFolderInputStream(folder);
+			try {
+				CabinetEntry entry;
+				while ((entry = in.getNextEntry()) != null) {
+					CabinetExtractResult result = results[entry.index];
+					if (result.getPath() == null) {
+						result.setException(new IOException("Invalid file entry " + entry.getName()));
+						continue;
+					}
+					try {
+						result.setSize(extract(in, result.getPath(), b));
+					} catch (IOException e) {
+						result.setException(e);
+					}
+				}
+				return null;
+			} finally {
+				in.close();
+			}
+		}
+
+		private long extract(InputStream in, Path out, byte[] b) throws IOException {
+			Path parent = out.getParent();
+			if (parent != null) {
+				Files.createDirectories(parent);
+			}
+			OutputStream os = Files.newOutputStream(out);
+			try {
+				long size = 0;
+				int n;
+				while ((n = in.read(b, 0, b.length)) > 0) {
+					os.write(b, 0, n);
+					size += n;
+				}
+				return size;
+			} finally {
+				os.close();
+			}
+		}
+	}
+
+	/** A cabinet of a set, as parsed. */
+	private static class Volume {
+		final File file;
+		final CabSource source;
+		final CabHeader head;
+		final CabFolder[] folders;
+		final CabFile[] files;
+		/** the first folder is continued from the previous cabinet */
+		final boolean continuedFromPrev;
+		/** the last folder is continued in the next cabinet */
+		final boolean continuedToNext;
+
+		Volume(File file, CabSource source, CabHeader head, CabFolder[] folders, CabFile[] files)
+				throws IOException {
+			this.file = file;
+			this.source = source;
+			this.head = head;
+			this.folders = folders;
+			this.files = files;
+			boolean fromPrev = false;
+			boolean toNext = false;
+			for (int i = 0; i < files.length; i++) {
+				int folder = files[i].iFolder;
+				fromPrev |= folder == CabFile.CONTINUED_FROM_PREV || folder == CabFile.CONTINUED_PREV_AND_NEXT;
+				toNext |= folder == CabFile.CONTINUED_TO_NEXT || folder == CabFile.CONTINUED_PREV_AND_NEXT;
+			}
+			if (!toNext && head.nextCabinet() && folders.length > 0) {
+				// no file says so, but the last block may still be split
+				toNext = folders[folders.length - 1].endsWithSplitBlock();
+			}
+			continuedFromPrev = head.prevCabinet() && folders.length > 0 && fromPrev;
+			continuedToNext = head.nextCabinet() && folders.length > 0 && toNext;
+		}
+	}
+
+	private Volume readVolume(File f) throws IOException {
+		file = new RandomAccessFile(f, "r");
+		source = new CabSource(file);
+		head = new CabHeader();
+		offset = 0;
+		buffer = null;
+		bufferStart = 0;
+		boolean done = false;
+		try {
+			readHeader();
+			readCabFolder();
+			readCabFile();
+			Volume v = new Volume(f, source, head, folders, files);
+			done = true;
+			return v;
+		} finally {
+			buffer = null;
+			if (!done) {
+				source.close();
+			}
+		}
+	}
+
+	/**
+	 * Read the cabinet named by another cabinet of the set.
+	 * @return null if it is not found, is read already or belongs to another set
+	 */
+	private Volume readVolume(Volume from, String name, Set<File> seen) throws IOException {
+		File f = findVolume(from.file, name);
+		if (f == null || !seen.add(f.getCanonicalFile())) {
+			return null;
+		}
+		Volume v = readVolume(f);
+		if (v.head.setID != from.head.setID) {
+			v.source.close();
+			return null;
+		}
+		return v;
+	}
+
+	/**
+	 * Look a cabinet of a set up in the directory of another one. The name is matched
+	 * regardless of case when there is no exact match, as sets are mostly made on Windows.
+	 * @return null if there is no such file
+	 */
+	private static File findVolume(File cabinet, String name) {
+		// the name is a plain file name, but be careful with a path
+		name = name.substring(Math.max(name.lastIndexOf('\\'), name.lastIndexOf('/')) + 1);
+		if (name.length() == 0 || ".".equals(name) || "..".equals(name)) {
+			return null;
+		}
+		File dir = cabinet.getAbsoluteFile().getParentFile();
+		File f = new File(dir, name);
+		if (f.isFile()) {
+			return f;
+		}
+		String[] list = dir == null ? null : dir.list();
+		if (list != null) {
+			for (String s : list) {
+				if (s.equalsIgnoreCase(name) && new File(dir, s).isFile()) {
+					return new File(dir, s);
+				}
 			}
 		}
-		throw new IOException("Invalid file entry");
+		return null;
+	}
+
+	/**
+	 * Put the folders and files of the cabinets of a set together.<p>
+	 * The first folder of a cabinet continued from the one before is appended to the last
+	 * folder of that cabinet. A file continued from the cabinet before is listed there
+	 * already and is dropped. Folder indexes of the files are made indexes into all folders.
+	 * @param missingPrev name of the cabinet before the first one if it was not found, else null
+	 * @param missingNext name of the cabinet after the last one if it was not found, else null
+	 */
+	private void merge(List<Volume> set, String missingPrev, String missingNext) {
+		List<CabFolder> allFolders = new ArrayList<CabFolder>();
+		List<CabFile> allFiles = new ArrayList<CabFile>();
+		sources = new CabSource[set.size()];
+		volumes = new File[set.size()];
+		Volume prev = null;
+		int k = 0;
+		for (Volume v : set) {
+			sources[k] = v.source;
+			volumes[k++] = v.file;
+			int n = v.folders.length;
+			boolean continued = prev != null && (prev.continuedToNext || v.continuedFromPrev)
+					&& prev.folders.length > 0 && n > 0;
+			int[] index = new int[n];
+			for (int j = 0; j < n; j++) {
+				if (j == 0 && continued) {
+					CabFolder folder = allFolders.get(allFolders.size() - 1);
+					folder.append(v.folders[0]);
+					index[j] = folder.index;
+				} else {
+					index[j] = allFolders.size();
+					v.folders[j].index = index[j];
+					allFolders.add(v.folders[j]);
+				}
+			}
+			for (int j = 0; j < v.files.length; j++) {
+				CabFile f = v.files[j];
+				int i = f.iFolder;
+				if (i == CabFile.CONTINUED_FROM_PREV || i == CabFile.CONTINUED_PREV_AND_NEXT) {
+					if (continued) {
+						// listed with the cabinet the file starts in
+						continue;
+					}
+					i = 0;
+				} else if (i == CabFile.CONTINUED_TO_NEXT) {
+					i = n - 1;
+				}
+				if (i >= 0 && i < n) {
+					f.iFolder = index[i];
+				}
+				allFiles.add(f);
+			}
+			prev = v;
+		}
+		Volume first = set.get(0);
+		if (missingPrev != null && first.continuedFromPrev) {
+			first.folders[0].prevVolume = missingPrev;
+		}
+		if (missingNext != null && prev.continuedToNext) {
+			allFolders.get(allFolders.size() - 1).nextVolume = missingNext;
+		}
+		folders = allFolders.toArray(new CabFolder[allFolders.size()]);
+		files = allFiles.toArray(new CabFile[allFiles.size()]);
 	}
 
 	private void readHeader() throws IOException {
-		head.signature[0] = (char) file.read();
-		head.signature[1] = (char) file.read();
-		head.signature[2] = (char) file.read();
-		head.signature[3] = (char) file.read();
-		offset += 4;
+		head.signature[0] = (char) readByte();
+		head.signature[1] = (char) readByte();
+		head.signature[2] = (char) readByte();
+		head.signature[3] = (char) readByte();
 
 		String s = new String(head.signature);
 		if (!"MSCF".equals(s)) {
@@ -111,9 +606,9 @@ public class CabinetReader {
 		}
 
 		head.reserved1 = (int) readNum(4);
-		head.cbCabinet = (int) readNum(4);
+		head.cbCabinet = readNum(4);
 		head.reserved2 = (int) readNum(4);
-		head.coffFiles = (int) readNum(4);
+		head.coffFiles = readNum(4);
 		head.reserved3 = (int) readNum(4);
 		head.versionMinor = (short) readNum(1);
 		head.versionMajor = (short) readNum(1);
@@ -135,23 +630,51 @@ public class CabinetReader {
 		}
 
 		if (head.prevCabinet()) {
-			// TODO
-			head.szCabinetPrev = new short[0];
-			head.szDiskPrev = new short[0];
+			head.szCabinetPrev = readString();
+			head.szDiskPrev = readString();
 		}
 
 		if (head.nextCabinet()) {
-			// TODO
-			head.szCabinetNext = new short[0];
-			head.szDiskNext = new short[0];
+			head.szCabinetNext = readString();
+			head.szDiskNext = readString();
 		}
 	}
 
+	/**
+	 * Read a null-terminated string of at most 255 bytes.
+	 */
+	private String readString() throws IOException {
+		return new String(readName(), "ISO-8859-1");
+	}
+
+	/**
+	 * Read the bytes of a null-terminated string of at most 255 bytes.
+	 */
+	private byte[] readName() throws IOException {
+		byte[] b = new byte[256];
+		int x = 0;
+		for (;;) {
+			byte c = readByte();
+			if (c == 0) {
+				break;
+			}
+			if (x == b.length) {
+				throw new IOException("Bad file format");
+			}
+			b[x++] = c;
+		}
+		return Arrays.copyOf(b, x);
+	}
+
 	private void readCabFolder() throws IOException {
 		folders = new CabFolder[head.cFolders];
+		ensure(head.cFolders * (8 + head.cbCFFolder));
 		for (int i = 0; i < head.cFolders; i++) {
 			folders[i] = new CabFolder();
-			folders[i].coffCabStart = (int) readNum(4);
+			folders[i].index = i;
+			folders[i].source = source;
+			folders[i].cbCFData = head.cbCFData;
+			folders[i].coffCabStart = readNum(4);
 			folders[i].cCFData = (int) readNum(2);
 			folders[i].typeCompress = (int) readNum(2);
 			if (head.reservePresent() && head.cbCFFolder != 0) {
@@ -168,84 +691,264 @@ public class CabinetReader {
 		if (head.coffFiles > offset) {
 			skip(head.coffFiles - offset);
 		}
+		// CFFILE entries end where the first CFDATA block begins, load the whole table at once
+		long end = Long.MAX_VALUE;
+		for (int i = 0; i < folders.length; i++) {
+			if (folders[i].cCFData > 0 && folders[i].coffCabStart > offset) {
+				end = Math.min(end, folders[i].coffCabStart);
+			}
+		}
+		if (end - offset < Integer.MAX_VALUE) {
+			ensure((int) (end - offset));
+		}
 		for (int i = 0; i < files.length; i++) {
 			files[i] = new CabFile();
-			files[i].cbFile = (int) readNum(4);
-			files[i].uoffFolderStart = (int) readNum(4);
+			files[i].cbFile = readNum(4);
+			files[i].uoffFolderStart = readNum(4);
 			files[i].iFolder = (int) readNum(2);
 			files[i].date = (int) readNum(2);
 			files[i].time = (int) readNum(2);
 			files[i].attribs = (int) readNum(2);
-
-			byte[] namebuffer = new byte[256];
-			int x = 0;
-			for (;;) {
-				byte b = readByte();
-				if (b == 0) {
-					break;
-				}
-				namebuffer[x++] = b;
-			}
-			if (files[i].isNameUnicode()) {
-				files[i].szName = new String(namebuffer, 0, x, "UNICODE");
-			} else {
-				files[i].szName = new String(namebuffer, 0, x);
-			}
-		}
-	}
-
-	private void readData() throws IOException {
-		for (int i = 0; i < folders.length; i++) {
-			folders[i].cabData = new CabData[folders[i].cCFData];
-			for (int j = 0; j < folders[i].cabData.length; j++) {
-				CabData cabData = new CabData(file, isSpeed_first());
-				cabData.csum = (int) readNum(4);
-				cabData.cbData = (int) readNum(2);
-				cabData.cbUncomp = (int) readNum(2);
-				if (head.reservePresent()) {
-					cabData.abReserve = new short[head.cbCFData];
-				}
-				// 延迟读取
-				cabData.offset = offset;
-				skip(cabData.cbData);
-				folders[i].cabData[j] = cabData;
-			}
+			files[i].szName = new String(readName(), files[i].isNameUnicode() ? "UTF-8" : "ISO-8859-1");
 		}
 	}
 
 	private InputStream readFile(CabFile file) throws IOException {
 		CabFolder folder = folders[file.iFolder];
+		folder.checkPrevVolume();
+		folder.load();
 		return new CabinetInputStream(folder, file);
 	}
 
-	private void skip(int bytenum) throws IOException {
-		file.skipBytes(bytenum);
+	private void skip(long bytenum) throws IOException {
 		offset += bytenum;
 	}
 
+	/**
+	 * Make sure bytes [offset, offset+bytenum) are in the buffer, reading at least
+	 * BUFFER_SIZE bytes from the file with a single call when they are not.
+	 */
+	private void ensure(int bytenum) throws IOException {
+		if (buffer != null && offset >= bufferStart
+				&& offset + bytenum <= bufferStart + buffer.limit()) {
+			return;
+		}
+		long remain = file.length() - offset;
+		if (remain < bytenum) {
+			throw new EOFException("Invalid CAB file");
+		}
+		byte[] b = new byte[(int) Math.min(remain, Math.max(bytenum, BUFFER_SIZE))];
+		file.seek(offset);
+		file.readFully(b);
+		buffer = ByteBuffer.wrap(b).order(ByteOrder.LITTLE_ENDIAN);
+		bufferStart = offset;
+	}
+
 	/**
 	 * 读取bytenum个byte，组成一个long, cab包所有数据采用little-ending ,
 	 * */
 	private long readNum(int bytenum) throws IOException {
-		int result = 0;
-		for (int i = 0; i < bytenum; i++) {
-			int a = file.read();
-			result = result + (a << (i * 8));
+		ensure(bytenum);
+		int index = (int) (offset - bufferStart);
+		long result;
+		switch (bytenum) {
+		case 1:
+			result = buffer.get(index) & 0xFF;
+			break;
+		case 2:
+			result = buffer.getShort(index) & 0xFFFF;
+			break;
+		case 4:
+			result = buffer.getInt(index) & 0xFFFFFFFFL;
+			break;
+		default:
+			result = 0;
+			for (int i = 0; i < bytenum; i++) {
+				result |= (long) (buffer.get(index + i) & 0xFF) << (i * 8);
+			}
 		}
 		offset += bytenum;
 		return result;
 	}
 
 	private byte readByte() throws IOException {
-		offset++;
-		return (byte) file.read();
+		ensure(1);
+		return buffer.get((int) (offset++ - bufferStart));
+	}
+
+	/**
+	 * Look up packed file names regardless of case, as Windows does.
+	 * @param ignoreCase
+	 */
+	public synchronized void setIgnoreCase(boolean ignoreCase) {
+		if (this.ignoreCase != ignoreCase) {
+			this.ignoreCase = ignoreCase;
+			nameIndex = null;
+		}
+	}
+
+	public synchronized boolean isIgnoreCase() {
+		return ignoreCase;
+	}
+
+	/**
+	 * Let '/' in a looked up name match the '\' separator of cab paths, and the other way round.
+	 * @param normalizeSeparators
+	 */
+	public synchronized void setNormalizeSeparators(boolean normalizeSeparators) {
+		if (this.normalizeSeparators != normalizeSeparators) {
+			this.normalizeSeparators = normalizeSeparators;
+			nameIndex = null;
+		}
+	}
+
+	public synchronized boolean isNormalizeSeparators() {
+		return normalizeSeparators;
+	}
+
+	/**
+	 * Record the decoder state every blocks data blocks of a compressed folder.<p>
+	 * Streams record the states while they decode a folder in order, for instance while
+	 * {@link #extractAll(File, Executor)} runs or the first time a file near the end is read.
+	 * A stream which then opens a file far into the folder decodes from the nearest checkpoint
+	 * instead of the first block. A checkpoint costs the 32K history of an MSZIP folder, and
+	 * the window size plus some 60K for LZX and Quantum folders.
+	 * @param blocks data blocks between two checkpoints, 0 to disable
+	 */
+	public synchronized void setCheckpointInterval(int blocks) {
+		if (blocks < 0) {
+			throw new IllegalArgumentException("negative checkpoint interval");
+		}
+		if (blocks == checkpointInterval) {
+			return;
+		}
+		checkpointInterval = blocks;
+		for (int i = 0; i < folders.length; i++) {
+			folders[i].setCheckpointInterval(blocks);
+		}
+	}
+
+	public synchronized int getCheckpointInterval() {
+		return checkpointInterval;
+	}
+
+	/**
+	 * Keep recently used decompressed data blocks in memory, shared by all streams of this reader.<p>
+	 * Reading a block again, from the same or another stream, then costs no decompression.
+	 * For MSZIP folders a cached block also serves as the history of the block after it.
+	 * The least recently used blocks are dropped when the cache is full. Setting a new size
+	 * empties the cache.
+	 * @param bytes capacity of the cache, 0 to disable it
+	 */
+	public void setBlockCacheSize(long bytes) {
+		setBlockCacheSize(bytes, false);
+	}
+
+	/**
+	 * Keep recently used decompressed data blocks in memory, see {@link #setBlockCacheSize(long)}.<p>
+	 * An off-heap cache keeps the blocks in direct buffers, allocated in 32M steps up to the
+	 * capacity, so a large cache adds nothing to garbage collection. A hit copies the block
+	 * to the stream instead of sharing it. The memory is freed when the cache is replaced or
+	 * the reader is closed.
+	 * @param bytes capacity of the cache, 0 to disable it
+	 * @param offHeap keep the blocks outside the Java heap
+	 */
+	public synchronized void setBlockCacheSize(long bytes, boolean offHeap) {
+		if (bytes < 0) {
+			throw new IllegalArgumentException("negative cache size");
+		}
+		CabBlockCache old = cache;
+		if (bytes == 0) {
+			cache = null;
+		} else if (offHeap) {
+			cache = new CabDirectBlockCache(bytes);
+		} else {
+			cache = new CabBlockCache(bytes);
+		}
+		for (int i = 0; i < folders.length; i++) {
+			folders[i].cache = cache;
+		}
+		if (old != null) {
+			old.release();
+		}
+	}
+
+	public synchronized long getBlockCacheSize() {
+		return cache == null ? 0 : cache.getCapacity();
+	}
+
+	public synchronized boolean isBlockCacheOffHeap() {
+		return cache != null && cache.isDirect();
+	}
+
+	/**
+	 * @return number of blocks served from the block cache
+	 */
+	public synchronized long getBlockCacheHits() {
+		return cache == null ? 0 : cache.getHits();
+	}
+
+	/**
+	 * @return number of blocks looked up in the block cache and decompressed
+	 */
+	public synchronized long getBlockCacheMisses() {
+		return cache == null ? 0 : cache.getMisses();
+	}
+
+	/**
+	 * Verify the checksum of every data block before it is decompressed.<p>
+	 * A block which does not match fails the read with an IOException. Blocks stored
+	 * without a checksum are accepted. Blocks served from the block cache were verified when
+	 * they were first decompressed.
+	 * @param verifyChecksums
+	 */
+	public synchronized void setVerifyChecksums(boolean verifyChecksums) {
+		this.verifyChecksums = verifyChecksums;
+		for (int i = 0; i < folders.length; i++) {
+			folders[i].verify = verifyChecksums;
+		}
 	}
 
-	public void setSpeed_first(boolean speed_first) {
+	public synchronized boolean isVerifyChecksums() {
+		return verifyChecksums;
+	}
+
+	/**
+	 * Keep the compressed bytes of every data block on the heap once read.
+	 * The data blocks of a folder are looked up when the folder is first read, so this only
+	 * applies to the folders first read after it is set.
+	 * @deprecated use {@link #setBlockCacheSize(long)}, which keeps the decompressed
+	 * blocks with a bounded size
+	 */
+	@Deprecated
+	public synchronized void setSpeed_first(boolean speed_first) {
 		this.speed_first = speed_first;
+		for (int i = 0; i < folders.length; i++) {
+			folders[i].speedFirst = speed_first;
+		}
 	}
 
-	public boolean isSpeed_first() {
+	/**
+	 * @deprecated see {@link #setSpeed_first(boolean)}
+	 */
+	@Deprecated
+	public synchronized boolean isSpeed_first() {
 		return speed_first;
 	}
+
+	/**
+	 * Read data blocks through a read-only memory mapping of the cab file instead of
+	 * seeking and copying each block.<br>
+	 * Uncompressed blocks are then served straight from the mapping.
+	 * @param memoryMapped
+	 */
+	public void setMemoryMapped(boolean memoryMapped) {
+		for (int i = 0; i < sources.length; i++) {
+			sources[i].setMapped(memoryMapped);
+		}
+	}
+
+	public boolean isMemoryMapped() {
+		return sources[0].isMapped();
+	}
 }
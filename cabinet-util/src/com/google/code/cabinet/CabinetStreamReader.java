@@ -0,0 +1,498 @@
+/*
+  Copyright [2009] [allenhooo at gmail dot com]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.google.code.cabinet;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Reads a cab front to back from a stream, in the manner of {@link java.util.zip.ZipInputStream}.<p>
+ * The header, folder and file tables are read by the constructor. {@link #getNextEntry()}
+ * then returns the files in the order of their data, folder by folder, and the stream reads
+ * the bytes of the current file. Nothing is written to disk and the source is never asked
+ * to seek, so a cab can be read straight from a network connection, a pipe or another
+ * archive. Files skipped or read only in part are decoded as far as a later file needs it.<p>
+ * Unlike {@link CabinetReader} a single cab is read. Files continued from the cabinet before
+ * are left out, and so are the other files of the first folder when that folder begins there.
+ * Reading a file continued in the next cabinet ends with an IOException.
+ */
+public class CabinetStreamReader extends InputStream {
+	private final CabStreamSource source;
+	private final CabHeader head = new CabHeader();
+	private CabFolder[] folders;
+	private CabFile[] files;
+	/** indexes of the files returned by getNextEntry, in the order of their data */
+	private Integer[] order;
+	/** next position in order */
+	private int next = 0;
+	/** stream offset of the next table byte */
+	private long offset = 0;
+	private final ByteBuffer scratch = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+
+	private boolean verifyChecksums = false;
+
+	/** folder of the current entry, null before the first one */
+	private CabFolder folder;
+	private CabFolderDecoder decoder;
+	/** LZX and Quantum decoders may read a little into the block after the one they decode */
+	private boolean readAhead;
+	/** last block reached, -1 before the first */
+	private int blockIndex = -1;
+	/** folder offsets of the first byte of blockIndex and of the byte after it */
+	private long blockStart = 0;
+	private long blockEnd = 0;
+	/** uncompressed data of blockIndex, null if it was skipped without decoding */
+	private ByteBuffer block;
+
+	private CabinetEntry entry;
+	/** folder offset of the next byte to read */
+	private long pos;
+	/** folder offset just past the current entry */
+	private long entryEnd;
+
+	private final byte[] single = new byte[1];
+	private boolean closed = false;
+
+	/**
+	 * Read a cab from an input stream, which is closed by {@link #close()}.
+	 * @param in the cab, read from its current position
+	 * @throws IOException
+	 */
+	public CabinetStreamReader(InputStream in) throws IOException {
+		this(Channels.newChannel(in));
+	}
+
+	/**
+	 * Read a cab from a channel, which is closed by {@link #close()}.
+	 * @param channel the cab, read from its current position
+	 * @throws IOException
+	 */
+	public CabinetStreamReader(ReadableByteChannel channel) throws IOException {
+		source = new CabStreamSource(channel);
+		readHeader();
+		readCabFolder();
+		readCabFile();
+	}
+
+	/**
+	 * Read table bytes, they are not needed again.
+	 */
+	private ByteBuffer read(int length) throws IOException {
+		ByteBuffer b = readAt(length);
+		source.release(offset);
+		return b;
+	}
+
+	/**
+	 * Read length bytes at offset and move past them.
+	 */
+	private ByteBuffer readAt(int length) throws IOException {
+		scratch.clear();
+		scratch.limit(length);
+		source.read(offset, scratch);
+		offset += length;
+		return scratch;
+	}
+
+	private void readHeader() throws IOException {
+		ByteBuffer b = read(4);
+		if (b.getInt(0) != 0x4643534D) {
+			throw new IOException("Invalid CAB file");
+		}
+		b = read(16);
+		head.reserved1 = b.getInt(0);
+		head.cbCabinet = b.getInt(4) & 0xFFFFFFFFL;
+		head.reserved2 = b.getInt(8);
+		head.coffFiles = b.getInt(12) & 0xFFFFFFFFL;
+		b = read(16);
+		head.reserved3 = b.getInt(0);
+		head.versionMinor = (short) (b.get(4) & 0xFF);
+		head.versionMajor = (short) (b.get(5) & 0xFF);
+		head.cFolders = b.getShort(6) & 0xFFFF;
+		head.cFiles = b.getShort(8) & 0xFFFF;
+		head.flags = b.getShort(10) & 0xFFFF;
+		head.setID = b.getShort(12) & 0xFFFF;
+		head.iCabinet = b.getShort(14) & 0xFFFF;
+		if (head.reservePresent()) {
+			b = read(4);
+			head.cbCFHeader = b.getShort(0) & 0xFFFF;
+			head.cbCFFolder = (short) (b.get(2) & 0xFF);
+			head.cbCFData = (short) (b.get(3) & 0xFF);
+		}
+		head.abReserve = new short[head.cbCFHeader];
+		for (int i = 0; i < head.cbCFHeader; i++) {
+			head.abReserve[i] = (short) (read(1).get(0) & 0xFF);
+		}
+		if (head.prevCabinet()) {
+			head.szCabinetPrev = readString();
+			head.szDiskPrev = readString();
+		}
+		if (head.nextCabinet()) {
+			head.szCabinetNext = readString();
+			head.szDiskNext = readString();
+		}
+	}
+
+	/**
+	 * Read a null-terminated string of at most 255 bytes.
+	 */
+	private byte[] readName() throws IOException {
+		byte[] b = new byte[256];
+		int x = 0;
+		for (;;) {
+			byte c = read(1).get(0);
+			if (c == 0) {
+				break;
+			}
+			if (x == b.length) {
+				throw new IOException("Bad file format");
+			}
+			b[x++] = c;
+		}
+		return Arrays.copyOf(b, x);
+	}
+
+	private String readString() throws IOException {
+		return new String(readName(), "ISO-8859-1");
+	}
+
+	private void readCabFolder() throws IOException {
+		folders = new CabFolder[head.cFolders];
+		for (int i = 0; i < head.cFolders; i++) {
+			ByteBuffer b = read(8);
+			folders[i] = new CabFolder();
+			folders[i].index = i;
+			folders[i].source = source;
+			folders[i].cbCFData = head.cbCFData;
+			folders[i].coffCabStart = b.getInt(0) & 0xFFFFFFFFL;
+			folders[i].cCFData = b.getShort(4) & 0xFFFF;
+			folders[i].typeCompress = b.getShort(6) & 0xFFFF;
+			if (head.reservePresent() && head.cbCFFolder != 0) {
+				folders[i].abReserve = new short[head.cbCFFolder];
+				for (int j = 0; j < head.cbCFFolder; j++) {
+					folders[i].abReserve[j] = (short) (read(1).get(0) & 0xFF);
+				}
+			}
+		}
+	}
+
+	private void readCabFile() throws IOException {
+		if (head.coffFiles > offset) {
+			offset = head.coffFiles;
+			source.release(offset);
+		}
+		files = new CabFile[head.cFiles];
+		for (int i = 0; i < files.length; i++) {
+			ByteBuffer b = read(16);
+			CabFile f = new CabFile();
+			f.cbFile = b.getInt(0) & 0xFFFFFFFFL;
+			f.uoffFolderStart = b.getInt(4) & 0xFFFFFFFFL;
+			f.iFolder = b.getShort(8) & 0xFFFF;
+			f.date = b.getShort(10) & 0xFFFF;
+			f.time = b.getShort(12) & 0xFFFF;
+			f.attribs = b.getShort(14) & 0xFFFF;
+			byte[] name = readName();
+			f.szName = new String(name, f.isNameUnicode() ? "UTF-8" : "ISO-8859-1");
+			if (f.iFolder == CabFile.CONTINUED_TO_NEXT) {
+				f.iFolder = folders.length - 1;
+			}
+			files[i] = f;
+		}
+		// files continued from the cabinet before cannot be read, the other files of the first
+		// folder only if it does not go on from there
+		boolean continued = continuesFromPrev();
+		int n = 0;
+		Integer[] readable = new Integer[files.length];
+		for (int i = 0; i < files.length; i++) {
+			int k = files[i].iFolder;
+			if (k < folders.length && !(k == 0 && continued)) {
+				readable[n++] = Integer.valueOf(i);
+			}
+		}
+		// the order of the data: folders by offset, then files by offset in the folder
+		order = Arrays.copyOf(readable, n);
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				CabFile x = files[a.intValue()];
+				CabFile y = files[b.intValue()];
+				long u = folders[x.iFolder].coffCabStart;
+				long v = folders[y.iFolder].coffCabStart;
+				if (u != v) {
+					return u < v ? -1 : 1;
+				}
+				if (x.iFolder != y.iFolder) {
+					return x.iFolder - y.iFolder;
+				}
+				if (x.uoffFolderStart != y.uoffFolderStart) {
+					return x.uoffFolderStart < y.uoffFolderStart ? -1 : 1;
+				}
+				return a.intValue() - b.intValue();
+			}
+		});
+	}
+
+	/**
+	 * The first folder goes on from the cabinet before if a file does, or if none of its files
+	 * starts at 0: its first block can be the rest of a split one and the offsets count from
+	 * the start of the folder in the cabinet before.
+	 */
+	private boolean continuesFromPrev() {
+		if (!head.prevCabinet() || folders.length == 0) {
+			return false;
+		}
+		boolean start = false;
+		for (CabFile f : files) {
+			if (f.iFolder == CabFile.CONTINUED_FROM_PREV || f.iFolder == CabFile.CONTINUED_PREV_AND_NEXT) {
+				return true;
+			}
+			if (f.iFolder == 0 && f.uoffFolderStart == 0) {
+				start = true;
+			}
+		}
+		return !start;
+	}
+
+	private void ensureOpen() throws IOException {
+		if (closed) {
+			throw new IOException("Stream closed");
+		}
+	}
+
+	/**
+	 * Position the stream at the beginning of the next file.
+	 * @return the next file, null when all files have been returned
+	 * @throws IOException
+	 */
+	public CabinetEntry getNextEntry() throws IOException {
+		ensureOpen();
+		entry = null;
+		if (next >= order.length) {
+			return null;
+		}
+		int i = order[next++].intValue();
+		CabFile f = files[i];
+		if (folder != folders[f.iFolder]) {
+			openFolder(folders[f.iFolder]);
+		}
+		checkHeld(f.uoffFolderStart, f.szName);
+		pos = f.uoffFolderStart;
+		entryEnd = pos + f.cbFile;
+		entry = new CabinetEntry(f, i);
+		return entry;
+	}
+
+	/**
+	 * The source keeps the bytes of the current block, even a stored one passed over without
+	 * decoding; everything before it has been released.
+	 */
+	private void checkHeld(long start, String name) throws IOException {
+		if (start < blockStart) {
+			// overlaps a file returned before, its data has gone by
+			throw new IOException("Cannot read " + name + " from a stream");
+		}
+	}
+
+	/**
+	 * @return number of files in the cab, including those getNextEntry() leaves out
+	 */
+	public int getFileCount() {
+		return files.length;
+	}
+
+	private void openFolder(CabFolder f) throws IOException {
+		if (decoder != null) {
+			decoder.end();
+		}
+		folder = f;
+		// the data blocks are filled in as the stream gets to them
+		f.cabData = new CabData[f.cCFData];
+		f.verify = verifyChecksums;
+		int type = f.typeCompress & CabFolder.COMP_MASK_TYPE;
+		readAhead = type == CabFolder.COMP_TYPE_LZX || type == CabFolder.COMP_TYPE_QUANTUM;
+		decoder = new CabFolderDecoder(f);
+		blockIndex = -1;
+		blockStart = 0;
+		blockEnd = 0;
+		block = null;
+		offset = f.coffCabStart;
+		source.release(offset);
+	}
+
+	/**
+	 * Read the CFDATA header of a block, the stream must be at it.
+	 */
+	private void readBlock(int index) throws IOException {
+		if (folder.cabData[index] != null) {
+			return;
+		}
+		// the block before may not have been decoded yet, its bytes are kept
+		ByteBuffer b = readAt(8);
+		CabData d = new CabData(source);
+		d.csum = b.getInt(0);
+		d.cbData = b.getShort(4) & 0xFFFF;
+		d.cbUncomp = b.getShort(6) & 0xFFFF;
+		if (folder.cbCFData != 0) {
+			d.abReserve = new short[folder.cbCFData];
+			for (int k = 0; k < folder.cbCFData; k++) {
+				d.abReserve[k] = (short) (readAt(1).get(0) & 0xFF);
+			}
+		}
+		d.offset = offset;
+		offset += d.cbData;
+		folder.cabData[index] = d;
+	}
+
+	/**
+	 * Move on to the next block of the folder. It is decoded unless it is stored and lies
+	 * before the position, compressed blocks are needed by the blocks after them.
+	 */
+	private void nextBlock() throws IOException {
+		int i = blockIndex + 1;
+		if (i >= folder.cCFData) {
+			if (head.nextCabinet() && folder.index == folders.length - 1) {
+				throw new IOException("Cabinet " + head.szCabinetNext + " not found");
+			}
+			throw new EOFException("Invalid CAB file");
+		}
+		readBlock(i);
+		CabData d = folder.cabData[i];
+		if (d.cbUncomp == 0) {
+			// split, the rest is in the next cabinet
+			throw new IOException("Cabinet " + head.szCabinetNext + " not found");
+		}
+		if (readAhead && i + 1 < folder.cCFData) {
+			readBlock(i + 1);
+		}
+		// the bytes of the blocks before are not needed any more
+		source.release(d.offset);
+		block = null;
+		blockIndex = i;
+		blockStart = blockEnd;
+		blockEnd += d.cbUncomp;
+		if (folder.typeCompress != CabFolder.COMP_TYPE_NONE || pos < blockEnd) {
+			decodeBlock();
+		}
+	}
+
+	private void decodeBlock() throws IOException {
+		block = decoder.decode(blockIndex);
+		if (block.limit() != folder.cabData[blockIndex].cbUncomp) {
+			throw new IOException("Bad file format");
+		}
+	}
+
+	@Override
+	public int read() throws IOException {
+		int n = read(single, 0, 1);
+		return n <= 0 ? -1 : single[0] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		ensureOpen();
+		if (off < 0 || len < 0 || len > b.length - off) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (entry == null || pos >= entryEnd) {
+			return -1;
+		}
+		if (len == 0) {
+			return 0;
+		}
+		while (pos >= blockEnd) {
+			nextBlock();
+		}
+		if (block == null) {
+			// a stored block passed over before this file began in it
+			checkHeld(pos, entry.getName());
+			decodeBlock();
+		}
+		int n = (int) Math.min(len, Math.min(blockEnd, entryEnd) - pos);
+		ByteBuffer src = block.duplicate();
+		src.position((int) (pos - blockStart));
+		src.get(b, off, n);
+		pos += n;
+		return n;
+	}
+
+	/**
+	 * Skip bytes of the current file. Compressed blocks are still decoded when the stream
+	 * gets to them, the blocks after them depend on them.
+	 */
+	@Override
+	public long skip(long n) throws IOException {
+		ensureOpen();
+		if (entry == null || n <= 0) {
+			return 0;
+		}
+		long k = Math.min(n, entryEnd - pos);
+		if (k <= 0) {
+			return 0;
+		}
+		pos += k;
+		return k;
+	}
+
+	/**
+	 * @return bytes of the current file left in the decoded block, which can be read without blocking
+	 */
+	@Override
+	public int available() throws IOException {
+		ensureOpen();
+		if (entry == null || block == null || pos < blockStart || pos >= blockEnd) {
+			return 0;
+		}
+		return (int) (Math.min(blockEnd, entryEnd) - pos);
+	}
+
+	/**
+	 * Check the checksums of the data blocks read from now on, see {@link CabinetReader#setVerifyChecksums(boolean)}.
+	 */
+	public void setVerifyChecksums(boolean verifyChecksums) {
+		this.verifyChecksums = verifyChecksums;
+		if (folder != null) {
+			folder.verify = verifyChecksums;
+		}
+	}
+
+	public boolean isVerifyChecksums() {
+		return verifyChecksums;
+	}
+
+	/**
+	 * Close the stream and the source it reads.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		entry = null;
+		block = null;
+		if (decoder != null) {
+			decoder.end();
+		}
+		source.close();
+	}
+}
@@ -0,0 +1,646 @@
+/*
+  Copyright [2009] [allenhooo at gmail dot com]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.google.code.cabinet;
+
+import java.io.IOException;
+
+/**
+ * LZX decompression.<p>
+ * Every data block of an LZX folder decodes to one frame of output. The window, the
+ * Huffman code lengths and the repeated match offsets carry over from frame to frame,
+ * so frames must be decoded in order, starting after {@link #reset()}.<p>
+ * Huffman codes are decoded with a direct lookup table of the first TABLEBITS bits,
+ * longer codes continue through a small tree stored behind the table.
+ */
+class LzxDecoder {
+	private static final int MIN_MATCH = 2;
+	private static final int NUM_CHARS = 256;
+	private static final int NUM_PRIMARY_LENGTHS = 7;
+	private static final int NUM_SECONDARY_LENGTHS = 249;
+
+	private static final int BLOCKTYPE_INVALID = 0;
+	private static final int BLOCKTYPE_VERBATIM = 1;
+	private static final int BLOCKTYPE_ALIGNED = 2;
+	private static final int BLOCKTYPE_UNCOMPRESSED = 3;
+
+	private static final int PRETREE_MAXSYMBOLS = 20;
+	private static final int PRETREE_TABLEBITS = 6;
+	private static final int MAINTREE_MAXSYMBOLS = NUM_CHARS + 50 * 8;
+	private static final int MAINTREE_TABLEBITS = 12;
+	private static final int LENGTH_MAXSYMBOLS = NUM_SECONDARY_LENGTHS + 1;
+	private static final int LENGTH_TABLEBITS = 12;
+	private static final int ALIGNED_MAXSYMBOLS = 8;
+	private static final int ALIGNED_TABLEBITS = 7;
+	/** code length runs may write past the last symbol */
+	private static final int LENTABLE_SAFETY = 64;
+	private static final int HUFF_MAXBITS = 16;
+
+	/** E8 call translation only applies to the first 32768 frames */
+	private static final int E8_MAX_FRAMES = 32768;
+
+	private static final int[] EXTRA_BITS = new int[51];
+	private static final int[] POSITION_BASE = new int[51];
+	static {
+		for (int i = 0, j = 0; i < 51; i += 2) {
+			EXTRA_BITS[i] = j;
+			if (i + 1 < 51) {
+				EXTRA_BITS[i + 1] = j;
+			}
+			if (i != 0 && j < 17) {
+				j++;
+			}
+		}
+		for (int i = 0, j = 0; i < 51; i++) {
+			POSITION_BASE[i] = j;
+			j += 1 << EXTRA_BITS[i];
+		}
+	}
+
+	private final byte[] window;
+	private final int windowSize;
+	/** number of match position slots for the window size */
+	private final int posnSlots;
+
+	private final Huffman pretree = new Huffman(PRETREE_MAXSYMBOLS, PRETREE_TABLEBITS);
+	private final Huffman maintree = new Huffman(MAINTREE_MAXSYMBOLS, MAINTREE_TABLEBITS);
+	private final Huffman lengthtree = new Huffman(LENGTH_MAXSYMBOLS, LENGTH_TABLEBITS);
+	private final Huffman alignedtree = new Huffman(ALIGNED_MAXSYMBOLS, ALIGNED_TABLEBITS);
+
+	private CabBlockInput in;
+	/** bits not consumed yet, most significant bit first */
+	private int bitBuffer;
+	private int bitsLeft;
+	/** zero bytes supplied after the input ran out */
+	private int padding;
+
+	private int windowPosn;
+	private int framePosn;
+	private int frame;
+	/** number of bytes output since reset */
+	private long offset;
+	private int r0, r1, r2;
+	private boolean headerRead;
+	private int blockType;
+	private int blockLength;
+	private int blockRemaining;
+	private int intelFilesize;
+	private boolean intelStarted;
+
+	/**
+	 * @param windowBits log2 of the window size, 15 to 21
+	 */
+	LzxDecoder(int windowBits) throws IOException {
+		if (windowBits < 15 || windowBits > 21) {
+			throw new IOException("Bad LZX window size " + windowBits);
+		}
+		windowSize = 1 << windowBits;
+		window = new byte[windowSize];
+		if (windowBits == 20) {
+			posnSlots = 42;
+		} else if (windowBits == 21) {
+			posnSlots = 50;
+		} else {
+			posnSlots = windowBits << 1;
+		}
+		reset(null);
+	}
+
+	/**
+	 * Start a new stream.
+	 * @param in the compressed bytes of the folder, positioned at its first block
+	 */
+	void reset(CabBlockInput in) {
+		this.in = in;
+		bitBuffer = 0;
+		bitsLeft = 0;
+		padding = 0;
+		windowPosn = 0;
+		framePosn = 0;
+		frame = 0;
+		offset = 0;
+		r0 = r1 = r2 = 1;
+		headerRead = false;
+		blockType = BLOCKTYPE_INVALID;
+		blockLength = 0;
+		blockRemaining = 0;
+		intelFilesize = 0;
+		intelStarted = false;
+		maintree.clearLengths();
+		lengthtree.clearLengths();
+	}
+
+	/**
+	 * Take over the complete state of another decoder with the same window size, except
+	 * its input. Between frames this saves or restores a checkpoint of the stream.
+	 */
+	void copyFrom(LzxDecoder other) {
+		System.arraycopy(other.window, 0, window, 0, windowSize);
+		pretree.copyFrom(other.pretree);
+		maintree.copyFrom(other.maintree);
+		lengthtree.copyFrom(other.lengthtree);
+		alignedtree.copyFrom(other.alignedtree);
+		bitBuffer = other.bitBuffer;
+		bitsLeft = other.bitsLeft;
+		padding = other.padding;
+		windowPosn = other.windowPosn;
+		framePosn = other.framePosn;
+		frame = other.frame;
+		offset = other.offset;
+		r0 = other.r0;
+		r1 = other.r1;
+		r2 = other.r2;
+		headerRead = other.headerRead;
+		blockType = other.blockType;
+		blockLength = other.blockLength;
+		blockRemaining = other.blockRemaining;
+		intelFilesize = other.intelFilesize;
+		intelStarted = other.intelStarted;
+	}
+
+	/**
+	 * Decode the next frame.
+	 * @param out receives the frame
+	 * @param frameSize uncompressed size of the frame, at most 32768
+	 */
+	void decode(byte[] out, int frameSize) throws IOException {
+		if (frameSize > 0x8000 || framePosn + frameSize > windowSize) {
+			throw new IOException("Bad LZX frame size " + frameSize);
+		}
+		if (!headerRead) {
+			int i = 0;
+			int j = 0;
+			if (readBits(1) != 0) {
+				i = readBits(16);
+				j = readBits(16);
+			}
+			intelFilesize = (i << 16) | j;
+			headerRead = true;
+		}
+
+		int bytesTodo = framePosn + frameSize - windowPosn;
+		while (bytesTodo > 0) {
+			if (blockRemaining == 0) {
+				readBlockHeader();
+			}
+			int thisRun = Math.min(blockRemaining, bytesTodo);
+			bytesTodo -= thisRun;
+			blockRemaining -= thisRun;
+
+			switch (blockType) {
+			case BLOCKTYPE_VERBATIM:
+			case BLOCKTYPE_ALIGNED:
+				thisRun = decodeMatches(thisRun, blockType == BLOCKTYPE_ALIGNED);
+				break;
+			case BLOCKTYPE_UNCOMPRESSED:
+				// the run ends in the frame, so it does not wrap the window either
+				for (int end = windowPosn + thisRun; windowPosn < end; windowPosn++) {
+					window[windowPosn] = (byte) readByte();
+				}
+				thisRun = 0;
+				break;
+			default:
+				throw new IOException("Bad LZX block type");
+			}
+
+			// the last match may overrun this run
+			if (thisRun < 0) {
+				if (-thisRun > blockRemaining) {
+					throw new IOException("LZX match overran the block");
+				}
+				blockRemaining += thisRun;
+			}
+		}
+		if (windowPosn - framePosn != frameSize) {
+			throw new IOException("LZX decoded beyond the frame");
+		}
+
+		// realign the bit stream to 16 bits
+		if (bitsLeft > 0) {
+			ensureBits(16);
+		}
+		if ((bitsLeft & 15) != 0) {
+			removeBits(bitsLeft & 15);
+		}
+
+		System.arraycopy(window, framePosn, out, 0, frameSize);
+		if (intelStarted && intelFilesize != 0 && frame < E8_MAX_FRAMES && frameSize > 10) {
+			translateE8(out, frameSize);
+		}
+
+		offset += frameSize;
+		frame++;
+		framePosn += frameSize;
+		if (windowPosn == windowSize) {
+			windowPosn = 0;
+		}
+		if (framePosn == windowSize) {
+			framePosn = 0;
+		}
+	}
+
+	@SuppressWarnings("fallthrough")
+	private void readBlockHeader() throws IOException {
+		if (blockType == BLOCKTYPE_UNCOMPRESSED && (blockLength & 1) != 0) {
+			// padding byte after an uncompressed block of odd length
+			readByte();
+		}
+		blockType = readBits(3);
+		int i = readBits(16);
+		int j = readBits(8);
+		blockRemaining = blockLength = (i << 8) | j;
+
+		switch (blockType) {
+		case BLOCKTYPE_ALIGNED:
+			for (i = 0; i < ALIGNED_MAXSYMBOLS; i++) {
+				alignedtree.lengths[i] = (byte) readBits(3);
+			}
+			alignedtree.build(false);
+			// the rest of the header is the same as a verbatim block
+			// fall through
+		case BLOCKTYPE_VERBATIM:
+			readLengths(maintree, 0, NUM_CHARS);
+			readLengths(maintree, NUM_CHARS, NUM_CHARS + (posnSlots << 3));
+			maintree.build(false);
+			if (maintree.lengths[0xE8] != 0) {
+				intelStarted = true;
+			}
+			readLengths(lengthtree, 0, NUM_SECONDARY_LENGTHS);
+			lengthtree.build(true);
+			break;
+		case BLOCKTYPE_UNCOMPRESSED:
+			intelStarted = true;
+			// 1 to 16 bits of padding align the stream to 16 bits
+			if (bitsLeft == 0) {
+				ensureBits(16);
+			}
+			bitsLeft = 0;
+			bitBuffer = 0;
+			r0 = readInt();
+			r1 = readInt();
+			r2 = readInt();
+			// the offsets are unsigned in the format, the matches use them as positive distances
+			if (r0 <= 0 || r0 > windowSize || r1 <= 0 || r1 > windowSize || r2 <= 0 || r2 > windowSize) {
+				throw new IOException("Bad file format");
+			}
+			break;
+		default:
+			throw new IOException("Bad LZX block type " + blockType);
+		}
+	}
+
+	/**
+	 * Read code lengths first to last-1 of a tree, coded as deltas to the previous lengths
+	 * with the pretree.
+	 */
+	private void readLengths(Huffman tree, int first, int last) throws IOException {
+		for (int x = 0; x < PRETREE_MAXSYMBOLS; x++) {
+			pretree.lengths[x] = (byte) readBits(4);
+		}
+		pretree.build(false);
+
+		byte[] lens = tree.lengths;
+		for (int x = first; x < last;) {
+			int z = decodeSymbol(pretree);
+			if (z == 17) {
+				// run of 4-19 zeros
+				for (int y = readBits(4) + 4; y > 0; y--) {
+					lens[x++] = 0;
+				}
+			} else if (z == 18) {
+				// run of 20-51 zeros
+				for (int y = readBits(5) + 20; y > 0; y--) {
+					lens[x++] = 0;
+				}
+			} else if (z == 19) {
+				// run of 4-5 equal lengths
+				int y = readBits(1) + 4;
+				z = lens[x] - decodeSymbol(pretree);
+				if (z < 0) {
+					z += 17;
+				}
+				for (; y > 0; y--) {
+					lens[x++] = (byte) z;
+				}
+			} else {
+				z = lens[x] - z;
+				if (z < 0) {
+					z += 17;
+				}
+				lens[x++] = (byte) z;
+			}
+		}
+	}
+
+	/**
+	 * Decode literals and matches of a verbatim or aligned block into the window.
+	 * @return thisRun minus the bytes decoded, negative if the last match went past it
+	 */
+	private int decodeMatches(int thisRun, boolean aligned) throws IOException {
+		byte[] window = this.window;
+		while (thisRun > 0) {
+			int mainElement = decodeSymbol(maintree);
+			if (mainElement < NUM_CHARS) {
+				window[windowPosn++] = (byte) mainElement;
+				thisRun--;
+				continue;
+			}
+			mainElement -= NUM_CHARS;
+
+			int matchLength = mainElement & NUM_PRIMARY_LENGTHS;
+			if (matchLength == NUM_PRIMARY_LENGTHS) {
+				if (lengthtree.empty) {
+					throw new IOException("LZX length tree is empty");
+				}
+				matchLength += decodeSymbol(lengthtree);
+			}
+			matchLength += MIN_MATCH;
+
+			int slot = mainElement >>> 3;
+			int matchOffset;
+			switch (slot) {
+			case 0:
+				matchOffset = r0;
+				break;
+			case 1:
+				matchOffset = r1;
+				r1 = r0;
+				r0 = matchOffset;
+				break;
+			case 2:
+				matchOffset = r2;
+				r2 = r0;
+				r0 = matchOffset;
+				break;
+			default:
+				int extra = slot >= 36 ? 17 : EXTRA_BITS[slot];
+				matchOffset = POSITION_BASE[slot] - 2;
+				if (!aligned) {
+					matchOffset += readBits(extra);
+				} else if (extra > 3) {
+					matchOffset += readBits(extra - 3) << 3;
+					matchOffset += decodeSymbol(alignedtree);
+				} else if (extra == 3) {
+					matchOffset += decodeSymbol(alignedtree);
+				} else if (extra > 0) {
+					matchOffset += readBits(extra);
+				} else {
+					matchOffset = 1;
+				}
+				r2 = r1;
+				r1 = r0;
+				r0 = matchOffset;
+			}
+
+			if (windowPosn + matchLength > windowSize) {
+				throw new IOException("LZX match ran over the window wrap");
+			}
+			int dest = windowPosn;
+			int i = matchLength;
+			if (matchOffset > windowPosn) {
+				if (matchOffset > offset + windowPosn - framePosn) {
+					throw new IOException("LZX match offset beyond the stream");
+				}
+				// the match starts at the end of the window
+				int j = matchOffset - windowPosn;
+				if (j > windowSize) {
+					throw new IOException("LZX match offset beyond the window");
+				}
+				int src = windowSize - j;
+				if (j < i) {
+					System.arraycopy(window, src, window, dest, j);
+					dest += j;
+					i -= j;
+					src = 0;
+				}
+				copy(window, src, dest, i);
+			} else {
+				copy(window, dest - matchOffset, dest, i);
+			}
+			thisRun -= matchLength;
+			windowPosn += matchLength;
+		}
+		return thisRun;
+	}
+
+	/** Copy a match, source and destination may overlap to repeat bytes. */
+	private static void copy(byte[] window, int src, int dest, int length) {
+		if (dest - src >= length) {
+			System.arraycopy(window, src, window, dest, length);
+		} else {
+			for (int end = dest + length; dest < end;) {
+				window[dest++] = window[src++];
+			}
+		}
+	}
+
+	/**
+	 * Undo the E8 call translation: the compressor replaced the relative targets of
+	 * x86 CALL instructions with absolute ones.
+	 */
+	private void translateE8(byte[] data, int frameSize) {
+		int curpos = (int) offset;
+		int end = frameSize - 10;
+		int i = 0;
+		while (i < end) {
+			if ((data[i++] & 0xFF) != 0xE8) {
+				curpos++;
+				continue;
+			}
+			int absOff = (data[i] & 0xFF) | (data[i + 1] & 0xFF) << 8
+					| (data[i + 2] & 0xFF) << 16 | data[i + 3] << 24;
+			if (absOff >= -curpos && absOff < intelFilesize) {
+				int relOff = absOff >= 0 ? absOff - curpos : absOff + intelFilesize;
+				data[i] = (byte) relOff;
+				data[i + 1] = (byte) (relOff >>> 8);
+				data[i + 2] = (byte) (relOff >>> 16);
+				data[i + 3] = (byte) (relOff >>> 24);
+			}
+			i += 4;
+			curpos += 5;
+		}
+	}
+
+	private void ensureBits(int n) throws IOException {
+		while (bitsLeft < n) {
+			int b0 = readInput();
+			int b1 = readInput();
+			bitBuffer |= ((b1 << 8) | b0) << (16 - bitsLeft);
+			bitsLeft += 16;
+		}
+	}
+
+	private int readInput() throws IOException {
+		int b = in.read();
+		if (b < 0) {
+			// the last frame may end within the final 16 bit word
+			if (++padding > 4) {
+				throw new IOException("LZX input overrun");
+			}
+			return 0;
+		}
+		return b;
+	}
+
+	private void removeBits(int n) {
+		bitBuffer <<= n;
+		bitsLeft -= n;
+	}
+
+	private int readBits(int n) throws IOException {
+		if (n == 0) {
+			return 0;
+		}
+		ensureBits(n);
+		int v = bitBuffer >>> (32 - n);
+		removeBits(n);
+		return v;
+	}
+
+	/** Read a byte of an uncompressed block, bypassing the bit buffer. */
+	private int readByte() throws IOException {
+		return readInput();
+	}
+
+	private int readInt() throws IOException {
+		return readByte() | readByte() << 8 | readByte() << 16 | readByte() << 24;
+	}
+
+	private int decodeSymbol(Huffman tree) throws IOException {
+		ensureBits(HUFF_MAXBITS);
+		int sym = tree.table[bitBuffer >>> (32 - tree.tableBits)];
+		if (sym >= tree.maxSymbols) {
+			int i = 1 << (32 - tree.tableBits);
+			do {
+				i >>>= 1;
+				if (i == 0) {
+					throw new IOException("Bad LZX Huffman code");
+				}
+				sym = tree.table[(sym << 1) | ((bitBuffer & i) != 0 ? 1 : 0)];
+			} while (sym >= tree.maxSymbols);
+		}
+		removeBits(tree.lengths[sym]);
+		return sym;
+	}
+
+	/** A canonical Huffman code, decoded MSB first. */
+	static final class Huffman {
+		final int maxSymbols;
+		final int tableBits;
+		final byte[] lengths;
+		final int[] table;
+		/** no symbol has a code, only allowed for the length tree */
+		boolean empty;
+
+		Huffman(int maxSymbols, int tableBits) {
+			this.maxSymbols = maxSymbols;
+			this.tableBits = tableBits;
+			this.lengths = new byte[maxSymbols + LENTABLE_SAFETY];
+			this.table = new int[(1 << tableBits) + (maxSymbols << 1)];
+		}
+
+		void clearLengths() {
+			java.util.Arrays.fill(lengths, (byte) 0);
+		}
+
+		void copyFrom(Huffman other) {
+			System.arraycopy(other.lengths, 0, lengths, 0, lengths.length);
+			System.arraycopy(other.table, 0, table, 0, table.length);
+			empty = other.empty;
+		}
+
+		/**
+		 * Build the decoding table from the code lengths.
+		 * @param mayBeEmpty accept a tree without any code
+		 */
+		void build(boolean mayBeEmpty) throws IOException {
+			empty = false;
+			if (makeTable()) {
+				return;
+			}
+			if (mayBeEmpty) {
+				for (int i = 0; i < maxSymbols; i++) {
+					if (lengths[i] != 0) {
+						throw new IOException("Bad LZX Huffman table");
+					}
+				}
+				empty = true;
+				return;
+			}
+			throw new IOException("Bad LZX Huffman table");
+		}
+
+		private boolean makeTable() {
+			int pos = 0;
+			int tableMask = 1 << tableBits;
+			int bitMask = tableMask >>> 1;
+
+			// codes short enough for a direct lookup fill all their table entries
+			for (int bitNum = 1; bitNum <= tableBits; bitNum++) {
+				for (int sym = 0; sym < maxSymbols; sym++) {
+					if (lengths[sym] != bitNum) {
+						continue;
+					}
+					int leaf = pos;
+					if ((pos += bitMask) > tableMask) {
+						return false;
+					}
+					for (int fill = bitMask; fill-- > 0;) {
+						table[leaf++] = sym;
+					}
+				}
+				bitMask >>>= 1;
+			}
+			if (pos == tableMask) {
+				return true;
+			}
+
+			// longer codes hang in a tree of entries behind the direct table
+			for (int sym = pos; sym < tableMask; sym++) {
+				table[sym] = 0xFFFF;
+			}
+			int nextSymbol = (tableMask >>> 1) < maxSymbols ? maxSymbols : (tableMask >>> 1);
+			pos <<= 16;
+			tableMask <<= 16;
+			bitMask = 1 << 15;
+			for (int bitNum = tableBits + 1; bitNum <= HUFF_MAXBITS; bitNum++) {
+				for (int sym = 0; sym < maxSymbols; sym++) {
+					if (lengths[sym] != bitNum) {
+						continue;
+					}
+					if (pos >= tableMask) {
+						return false;
+					}
+					int leaf = pos >>> 16;
+					for (int fill = 0; fill < bitNum - tableBits; fill++) {
+						if (table[leaf] == 0xFFFF) {
+							table[nextSymbol << 1] = 0xFFFF;
+							table[(nextSymbol << 1) + 1] = 0xFFFF;
+							table[leaf] = nextSymbol++;
+						}
+						leaf = table[leaf] << 1;
+						if (((pos >>> (15 - fill)) & 1) != 0) {
+							leaf++;
+						}
+					}
+					table[leaf] = sym;
+					pos += bitMask;
+				}
+				bitMask >>>= 1;
+			}
+			return pos == tableMask;
+		}
+	}
+}
@@ -0,0 +1,446 @@
+/*
+  Copyright [2009] [allenhooo at gmail dot com]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.google.code.cabinet;
+
+import java.io.IOException;
+
+/**
+ * Quantum decompression.<p>
+ * Quantum is an LZ77 sliding window coder with adaptive arithmetic coding of literals
+ * and matches. The window and the frequency models carry over from frame to frame,
+ * only the arithmetic coder restarts at every 32K frame, so frames must be decoded in
+ * order, starting after {@link #reset(CabBlockInput)}.<p>
+ * The compressor pads every frame with up to 4 null bytes. The input must supply a 0xFF
+ * byte after every data block, see {@link CabBlockInput}, the decoder skips to it to realign.
+ */
+class QuantumDecoder {
+	private static final int FRAME_SIZE = 32768;
+
+	private static final int[] POSITION_BASE = {
+		0, 1, 2, 3, 4, 6, 8, 12, 16, 24, 32, 48, 64, 96, 128, 192, 256, 384, 512, 768,
+		1024, 1536, 2048, 3072, 4096, 6144, 8192, 12288, 16384, 24576, 32768, 49152,
+		65536, 98304, 131072, 196608, 262144, 393216, 524288, 786432, 1048576, 1572864
+	};
+	private static final int[] EXTRA_BITS = {
+		0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6, 7, 7, 8, 8,
+		9, 9, 10, 10, 11, 11, 12, 12, 13, 13, 14, 14, 15, 15, 16, 16,
+		17, 17, 18, 18, 19, 19
+	};
+	private static final int[] LENGTH_BASE = {
+		0, 1, 2, 3, 4, 5, 6, 8, 10, 12, 14, 18, 22, 26,
+		30, 38, 46, 54, 62, 78, 94, 110, 126, 158, 190, 222, 254
+	};
+	private static final int[] LENGTH_EXTRA = {
+		0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2,
+		3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0
+	};
+
+	private final byte[] window;
+	private final int windowSize;
+	private final int windowBits;
+
+	/** literals 0-63, 64-127, 128-191, 192-255 */
+	private final Model model0 = new Model();
+	private final Model model1 = new Model();
+	private final Model model2 = new Model();
+	private final Model model3 = new Model();
+	/** position slots of 3 byte matches */
+	private final Model model4 = new Model();
+	/** position slots of 4 byte matches */
+	private final Model model5 = new Model();
+	/** position slots of longer matches */
+	private final Model model6 = new Model();
+	/** lengths of longer matches */
+	private final Model model6len = new Model();
+	/** selects the model of the next symbol */
+	private final Model model7 = new Model();
+
+	private CabBlockInput in;
+	private int bitBuffer;
+	private int bitsLeft;
+	/** zero bytes supplied after the input ran out */
+	private int padding;
+
+	/** arithmetic coder: high, low and code value, 16 bits each */
+	private int h;
+	private int l;
+	private int c;
+	private boolean headerRead;
+
+	private int windowPosn;
+	/** window position of the first byte not handed out yet */
+	private int outPosn;
+	/** bytes left in the current frame */
+	private int frameTodo;
+
+	/**
+	 * @param windowBits log2 of the window size, 10 to 21
+	 */
+	QuantumDecoder(int windowBits) throws IOException {
+		if (windowBits < 10 || windowBits > 21) {
+			throw new IOException("Bad Quantum window size " + windowBits);
+		}
+		this.windowBits = windowBits;
+		windowSize = 1 << windowBits;
+		window = new byte[windowSize];
+		reset(null);
+	}
+
+	/**
+	 * Start a new stream.
+	 * @param in the compressed bytes of the folder with block trailers, positioned at its first block
+	 */
+	void reset(CabBlockInput in) {
+		this.in = in;
+		bitBuffer = 0;
+		bitsLeft = 0;
+		padding = 0;
+		headerRead = false;
+		windowPosn = 0;
+		outPosn = 0;
+		frameTodo = FRAME_SIZE;
+
+		int i = windowBits * 2;
+		model0.init(0, 64);
+		model1.init(64, 64);
+		model2.init(128, 64);
+		model3.init(192, 64);
+		model4.init(0, Math.min(i, 24));
+		model5.init(0, Math.min(i, 36));
+		model6.init(0, i);
+		model6len.init(0, 27);
+		model7.init(0, 7);
+	}
+
+	/**
+	 * Take over the complete state of another decoder with the same window size, except
+	 * its input. Between frames this saves or restores a checkpoint of the stream.
+	 */
+	void copyFrom(QuantumDecoder other) {
+		System.arraycopy(other.window, 0, window, 0, windowSize);
+		model0.copyFrom(other.model0);
+		model1.copyFrom(other.model1);
+		model2.copyFrom(other.model2);
+		model3.copyFrom(other.model3);
+		model4.copyFrom(other.model4);
+		model5.copyFrom(other.model5);
+		model6.copyFrom(other.model6);
+		model6len.copyFrom(other.model6len);
+		model7.copyFrom(other.model7);
+		bitBuffer = other.bitBuffer;
+		bitsLeft = other.bitsLeft;
+		padding = other.padding;
+		h = other.h;
+		l = other.l;
+		c = other.c;
+		headerRead = other.headerRead;
+		windowPosn = other.windowPosn;
+		outPosn = other.outPosn;
+		frameTodo = other.frameTodo;
+	}
+
+	/**
+	 * Decode the next size bytes of the stream.
+	 * @param out receives the bytes
+	 * @param size number of bytes, the uncompressed size of the data block
+	 */
+	void decode(byte[] out, int size) throws IOException {
+		int outPos = 0;
+		while (outPos + pending() < size) {
+			if (!headerRead) {
+				h = 0xFFFF;
+				l = 0;
+				c = readBits(16);
+				headerRead = true;
+			}
+
+			// decode up to the bytes needed, the frame end or the window end
+			int frameEnd = windowPosn + (size - outPos - pending());
+			frameEnd = Math.min(frameEnd, windowPosn + frameTodo);
+			frameEnd = Math.min(frameEnd, windowSize);
+
+			while (windowPosn < frameEnd) {
+				int selector = getSymbol(model7);
+				if (selector < 4) {
+					Model model = selector == 0 ? model0 : selector == 1 ? model1 : selector == 2 ? model2 : model3;
+					window[windowPosn++] = (byte) getSymbol(model);
+					frameTodo--;
+					continue;
+				}
+
+				int matchOffset;
+				int matchLength;
+				int sym;
+				switch (selector) {
+				case 4:
+					sym = getSymbol(model4);
+					matchOffset = POSITION_BASE[sym] + readManyBits(EXTRA_BITS[sym]) + 1;
+					matchLength = 3;
+					break;
+				case 5:
+					sym = getSymbol(model5);
+					matchOffset = POSITION_BASE[sym] + readManyBits(EXTRA_BITS[sym]) + 1;
+					matchLength = 4;
+					break;
+				case 6:
+					sym = getSymbol(model6len);
+					matchLength = LENGTH_BASE[sym] + readManyBits(LENGTH_EXTRA[sym]) + 5;
+					sym = getSymbol(model6);
+					matchOffset = POSITION_BASE[sym] + readManyBits(EXTRA_BITS[sym]) + 1;
+					break;
+				default:
+					throw new IOException("Bad Quantum selector " + selector);
+				}
+				frameTodo -= matchLength;
+
+				if (windowPosn + matchLength > windowSize) {
+					// the match wraps the window, possible when the window is smaller than a frame
+					int j = windowPosn - matchOffset;
+					int mask = windowSize - 1;
+					int rest = matchLength - (windowSize - windowPosn);
+					while (windowPosn < windowSize) {
+						window[windowPosn++] = window[j++ & mask];
+					}
+					outPos = flush(out, outPos, size);
+					outPosn = 0;
+					for (windowPosn = 0; windowPosn < rest; windowPosn++) {
+						window[windowPosn] = window[j++ & mask];
+					}
+					break;
+				}
+
+				int dest = windowPosn;
+				int i = matchLength;
+				if (matchOffset > windowPosn) {
+					int j = matchOffset - windowPosn;
+					if (j > windowSize) {
+						throw new IOException("Quantum match offset beyond the window");
+					}
+					int src = windowSize - j;
+					if (j < i) {
+						System.arraycopy(window, src, window, dest, j);
+						dest += j;
+						i -= j;
+						src = 0;
+					}
+					copy(src, dest, i);
+				} else {
+					copy(dest - matchOffset, dest, i);
+				}
+				windowPosn += matchLength;
+			}
+
+			if (frameTodo < 0) {
+				throw new IOException("Quantum overshot the frame");
+			}
+			if (frameTodo == 0) {
+				// realign to a byte, then skip the frame padding up to the block trailer
+				if ((bitsLeft & 7) != 0) {
+					removeBits(bitsLeft & 7);
+				}
+				while (readBits(8) != 0xFF) {
+					// null padding
+				}
+				headerRead = false;
+				frameTodo = FRAME_SIZE;
+			}
+			if (windowPosn == windowSize) {
+				outPos = flush(out, outPos, size);
+				outPosn = 0;
+				windowPosn = 0;
+			}
+		}
+		flush(out, outPos, size);
+	}
+
+	/** @return bytes decoded into the window but not handed out yet */
+	private int pending() {
+		return windowPosn - outPosn;
+	}
+
+	/** Hand out decoded bytes from the window, up to size bytes in total. */
+	private int flush(byte[] out, int outPos, int size) throws IOException {
+		int n = Math.min(pending(), size - outPos);
+		if (n < pending() && windowPosn == windowSize) {
+			throw new IOException("Quantum block size does not match the frames");
+		}
+		System.arraycopy(window, outPosn, out, outPos, n);
+		outPosn += n;
+		return outPos + n;
+	}
+
+	/** Copy a match, source and destination may overlap to repeat bytes. */
+	private void copy(int src, int dest, int length) {
+		if (dest - src >= length) {
+			System.arraycopy(window, src, window, dest, length);
+		} else {
+			for (int end = dest + length; dest < end;) {
+				window[dest++] = window[src++];
+			}
+		}
+	}
+
+	/** Decode one symbol with the arithmetic coder and update the model. */
+	private int getSymbol(Model model) throws IOException {
+		int[] cumfreq = model.cumfreq;
+		int range = ((h - l) & 0xFFFF) + 1;
+		int symf = ((((c - l + 1) * cumfreq[0]) - 1) / range) & 0xFFFF;
+
+		int i;
+		for (i = 1; i < model.entries; i++) {
+			if (cumfreq[i] <= symf) {
+				break;
+			}
+		}
+		int sym = model.sym[i - 1];
+
+		range = (h - l) + 1;
+		symf = cumfreq[0];
+		h = (l + ((cumfreq[i - 1] * range) / symf) - 1) & 0xFFFF;
+		l = (l + ((cumfreq[i] * range) / symf)) & 0xFFFF;
+
+		while (i-- > 0) {
+			cumfreq[i] += 8;
+		}
+		if (cumfreq[0] > 3800) {
+			model.update();
+		}
+
+		for (;;) {
+			if ((l & 0x8000) != (h & 0x8000)) {
+				if ((l & 0x4000) != 0 && (h & 0x4000) == 0) {
+					// underflow
+					c ^= 0x4000;
+					l &= 0x3FFF;
+					h |= 0x4000;
+				} else {
+					break;
+				}
+			}
+			l = (l << 1) & 0xFFFF;
+			h = ((h << 1) | 1) & 0xFFFF;
+			c = ((c << 1) | readBits(1)) & 0xFFFF;
+		}
+		return sym;
+	}
+
+	private void ensureBits(int n) throws IOException {
+		while (bitsLeft < n) {
+			int b0 = readInput();
+			int b1 = readInput();
+			bitBuffer |= ((b0 << 8) | b1) << (16 - bitsLeft);
+			bitsLeft += 16;
+		}
+	}
+
+	private int readInput() throws IOException {
+		int b = in.read();
+		if (b < 0) {
+			if (++padding > 4) {
+				throw new IOException("Quantum input overrun");
+			}
+			return 0;
+		}
+		return b;
+	}
+
+	private void removeBits(int n) {
+		bitBuffer <<= n;
+		bitsLeft -= n;
+	}
+
+	private int readBits(int n) throws IOException {
+		ensureBits(n);
+		int v = bitBuffer >>> (32 - n);
+		removeBits(n);
+		return v;
+	}
+
+	/** Read up to 19 bits. */
+	private int readManyBits(int n) throws IOException {
+		if (n == 0) {
+			return 0;
+		}
+		if (n > 16) {
+			int high = readBits(n - 16);
+			return (high << 16) | readBits(16);
+		}
+		return readBits(n);
+	}
+
+	/**
+	 * An adaptive frequency model. Symbols are kept in decreasing order of frequency,
+	 * cumfreq[i] is the total frequency of symbols i and above, cumfreq[entries] is 0.
+	 */
+	static final class Model {
+		int shiftsLeft;
+		int entries;
+		final int[] sym = new int[65];
+		final int[] cumfreq = new int[65];
+
+		void init(int start, int len) {
+			shiftsLeft = 4;
+			entries = len;
+			for (int i = 0; i <= len; i++) {
+				sym[i] = start + i;
+				cumfreq[i] = len - i;
+			}
+		}
+
+		void copyFrom(Model other) {
+			shiftsLeft = other.shiftsLeft;
+			entries = other.entries;
+			System.arraycopy(other.sym, 0, sym, 0, sym.length);
+			System.arraycopy(other.cumfreq, 0, cumfreq, 0, cumfreq.length);
+		}
+
+		void update() {
+			if (--shiftsLeft != 0) {
+				for (int i = entries - 1; i >= 0; i--) {
+					cumfreq[i] >>>= 1;
+					if (cumfreq[i] <= cumfreq[i + 1]) {
+						cumfreq[i] = cumfreq[i + 1] + 1;
+					}
+				}
+				return;
+			}
+
+			shiftsLeft = 50;
+			for (int i = 0; i < entries; i++) {
+				// cumulative frequencies to halved frequencies
+				cumfreq[i] -= cumfreq[i + 1];
+				cumfreq[i]++;
+				cumfreq[i] >>>= 1;
+			}
+			// a stable selection sort, decreasing frequency; the order decides the coding
+			for (int i = 0; i < entries - 1; i++) {
+				for (int j = i + 1; j < entries; j++) {
+					if (cumfreq[i] < cumfreq[j]) {
+						int t = cumfreq[i];
+						cumfreq[i] = cumfreq[j];
+						cumfreq[j] = t;
+						t = sym[i];
+						sym[i] = sym[j];
+						sym[j] = t;
+					}
+				}
+			}
+			for (int i = entries - 1; i >= 0; i--) {
+				cumfreq[i] += cumfreq[i + 1];
+			}
+		}
+	}
+}
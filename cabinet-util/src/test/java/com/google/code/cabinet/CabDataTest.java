@@ -0,0 +1,78 @@
+/*
+  Copyright [2009] [allenhooo at gmail dot com]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.google.code.cabinet;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.Test;
+
+public class CabDataTest {
+	/** bytes 1 to 23 */
+	private static final byte[] BYTES = new byte[23];
+	static {
+		for (int i = 0; i < BYTES.length; i++) {
+			BYTES[i] = (byte) (i + 1);
+		}
+	}
+
+	/**
+	 * The 1 to 3 bytes after the last word count big-endian, unlike the words.
+	 */
+	@Test
+	public void trailingBytes() {
+		int[] lengths = { 0, 1, 2, 3, 4, 5, 6, 7, 16, 17, 18, 19, 23 };
+		int[] sums = { 0, 0x1, 0x102, 0x10203, 0x4030201, 0x4030204, 0x4030707, 0x4060406,
+				0x10000000, 0x10000011, 0x10001112, 0x10111213, 0x4060406 };
+		for (int i = 0; i < lengths.length; i++) {
+			ByteBuffer b = ByteBuffer.wrap(BYTES);
+			assertEquals("length " + lengths[i], sums[i], CabData.checksum(b, 0, lengths[i], 0));
+			// the same on a direct, big-endian buffer
+			ByteBuffer d = ByteBuffer.allocateDirect(BYTES.length).order(ByteOrder.BIG_ENDIAN);
+			d.put(BYTES);
+			assertEquals("direct " + lengths[i], sums[i], CabData.checksum(d, 0, lengths[i], 0));
+		}
+	}
+
+	@Test
+	public void seedAndStart() {
+		ByteBuffer b = ByteBuffer.wrap(BYTES);
+		assertEquals(0x1632527e, CabData.checksum(b, 0, 7, 0x12345678));
+		assertEquals(0x10100405, CabData.checksum(b, 3, 18, 0));
+	}
+
+	/**
+	 * The data blocks of lzx15.cab end with 3, 1 and 2 bytes after the last word.
+	 */
+	@Test
+	public void fixtureBlocks() throws IOException {
+		int[] csum = { 0x5d51b9a6, 0xadf4bc5c, 0x08b0ba79 };
+		int[] cbData = { 27179, 19009, 1878 };
+		ByteBuffer b = ByteBuffer.wrap(Fixtures.read(Fixtures.file("lzx15.cab"))).order(ByteOrder.LITTLE_ENDIAN);
+		int p = b.getInt(36);
+		assertEquals(csum.length, b.getShort(40));
+		for (int i = 0; i < csum.length; i++) {
+			assertEquals(csum[i], b.getInt(p));
+			assertEquals(cbData[i], b.getShort(p + 4) & 0xFFFF);
+			int cbUncomp = b.getShort(p + 6) & 0xFFFF;
+			assertEquals("block " + i, csum[i], CabData.checksum(b, p + 8, cbData[i], 0) ^ (cbData[i] | cbUncomp << 16));
+			p += 8 + cbData[i];
+		}
+	}
+}
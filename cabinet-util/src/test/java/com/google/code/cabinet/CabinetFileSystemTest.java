@@ -0,0 +1,240 @@
+/*
+  Copyright [2009] [allenhooo at gmail dot com]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.google.code.cabinet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.spi.FileSystemProvider;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CabinetFileSystemTest {
+	private static final long TIME = new GregorianCalendar(2009, 11, 25, 8, 30, 0).getTimeInMillis();
+	private static final String[] NAMES = { "a.txt", "dir\\b.txt", "dir\\sub\\c.bin", "dir\\sub\\d.txt", "empty" };
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	private File cab;
+	private byte[][] contents;
+
+	/**
+	 * A stored cab, c.bin is read-only and hidden.
+	 */
+	@Before
+	public void setUp() throws IOException {
+		Random r = new Random(2);
+		contents = new byte[NAMES.length][];
+		int[] sizes = { 1000, 70000, 5, 40000, 0 };
+		cab = tmp.newFile("test.cab");
+		CabinetWriter w = new CabinetWriter(cab);
+		try {
+			w.setCompression(CabinetWriter.STORED);
+			for (int i = 0; i < NAMES.length; i++) {
+				contents[i] = new byte[sizes[i]];
+				r.nextBytes(contents[i]);
+				int attributes = CabFile.ARCH;
+				if (i == 2) {
+					attributes |= CabFile.RDONLY | CabFile.HIDDEN;
+				}
+				w.putNextEntry(NAMES[i], TIME, attributes);
+				w.write(contents[i]);
+			}
+		} finally {
+			w.close();
+		}
+	}
+
+	@Test
+	public void walk() throws IOException {
+		FileSystem fs = FileSystems.newFileSystem(uri("/"), Collections.<String, Object> emptyMap());
+		try {
+			Set<String> paths = new TreeSet<String>();
+			Stream<Path> s = Files.walk(fs.getPath("/"));
+			try {
+				for (Iterator<Path> i = s.iterator(); i.hasNext();) {
+					paths.add(i.next().toString());
+				}
+			} finally {
+				s.close();
+			}
+			assertEquals(new TreeSet<String>(Arrays.asList("/", "/a.txt", "/dir", "/dir/b.txt", "/dir/sub",
+					"/dir/sub/c.bin", "/dir/sub/d.txt", "/empty")), paths);
+			assertTrue(Files.isDirectory(fs.getPath("/dir/sub")));
+			assertFalse(Files.exists(fs.getPath("/dir/missing")));
+		} finally {
+			fs.close();
+		}
+	}
+
+	@Test
+	public void copy() throws IOException {
+		FileSystem fs = FileSystems.newFileSystem(uri("/"), Collections.<String, Object> emptyMap());
+		try {
+			for (int i = 0; i < NAMES.length; i++) {
+				Path target = tmp.getRoot().toPath().resolve("copy" + i);
+				Files.copy(fs.getPath("/" + NAMES[i].replace('\\', '/')), target);
+				assertArrayEquals(NAMES[i], contents[i], Files.readAllBytes(target));
+			}
+		} finally {
+			fs.close();
+		}
+	}
+
+	@Test
+	public void glob() throws IOException {
+		FileSystem fs = FileSystems.newFileSystem(uri("/"), Collections.<String, Object> emptyMap());
+		try {
+			PathMatcher txt = fs.getPathMatcher("glob:**.txt");
+			PathMatcher dir = fs.getPathMatcher("glob:/dir/*");
+			Set<String> matched = new TreeSet<String>();
+			Set<String> inDir = new TreeSet<String>();
+			Stream<Path> s = Files.walk(fs.getPath("/"));
+			try {
+				for (Iterator<Path> i = s.iterator(); i.hasNext();) {
+					Path p = i.next();
+					if (txt.matches(p)) {
+						matched.add(p.toString());
+					}
+					if (dir.matches(p)) {
+						inDir.add(p.toString());
+					}
+				}
+			} finally {
+				s.close();
+			}
+			assertEquals(new TreeSet<String>(Arrays.asList("/a.txt", "/dir/b.txt", "/dir/sub/d.txt")), matched);
+			assertEquals(new TreeSet<String>(Arrays.asList("/dir/b.txt", "/dir/sub")), inDir);
+		} finally {
+			fs.close();
+		}
+	}
+
+	@Test
+	public void dosAttributes() throws IOException {
+		FileSystem fs = FileSystems.newFileSystem(uri("/"), Collections.<String, Object> emptyMap());
+		try {
+			Map<String, Object> a = Files.readAttributes(fs.getPath("/dir/sub/c.bin"), "dos:*");
+			assertEquals(Boolean.TRUE, a.get("readonly"));
+			assertEquals(Boolean.TRUE, a.get("hidden"));
+			assertEquals(Boolean.FALSE, a.get("system"));
+			assertEquals(Boolean.TRUE, a.get("archive"));
+			assertEquals(Long.valueOf(5), a.get("size"));
+			assertEquals(FileTime.fromMillis(TIME), a.get("lastModifiedTime"));
+			assertEquals(Boolean.TRUE, a.get("isRegularFile"));
+			a = Files.readAttributes(fs.getPath("/a.txt"), "dos:*");
+			assertEquals(Boolean.FALSE, a.get("readonly"));
+			assertEquals(Boolean.FALSE, a.get("hidden"));
+			assertEquals(Long.valueOf(1000), a.get("size"));
+		} finally {
+			fs.close();
+		}
+	}
+
+	/**
+	 * getPath opens the cab once and keeps it for the next lookup.
+	 */
+	@Test
+	public void getPathTwice() throws IOException {
+		URI uri = uri("/dir/b.txt");
+		Path p = Paths.get(uri);
+		Path q = Paths.get(uri);
+		try {
+			assertSame(p.getFileSystem(), q.getFileSystem());
+			assertEquals(p, q);
+			assertArrayEquals(contents[1], Files.readAllBytes(q));
+			assertSame(p.getFileSystem(), Paths.get(uri("/a.txt")).getFileSystem());
+		} finally {
+			p.getFileSystem().close();
+		}
+		assertTrue(Paths.get(uri).getFileSystem().isOpen());
+		Paths.get(uri).getFileSystem().close();
+	}
+
+	/**
+	 * newFileSystem(Path, Map) passes env to the reader: a corrupt stored block reads unless
+	 * checksums are verified.
+	 */
+	@Test
+	public void newFileSystemWithEnv() throws IOException {
+		byte[] b = Fixtures.read(cab);
+		int data = ByteBuffer.wrap(b).order(ByteOrder.LITTLE_ENDIAN).getInt(36);
+		b[data + 8 + 10] ^= 1;
+		Path corrupt = tmp.getRoot().toPath().resolve("corrupt.cab");
+		Fixtures.write(corrupt.toFile(), b);
+		FileSystemProvider provider = provider();
+		FileSystem fs = provider.newFileSystem(corrupt, Collections.<String, Object> emptyMap());
+		try {
+			assertEquals(1000, Files.readAllBytes(fs.getPath("/a.txt")).length);
+		} finally {
+			fs.close();
+		}
+		Map<String, Object> env = new HashMap<String, Object>();
+		env.put("verifyChecksums", Boolean.TRUE);
+		fs = provider.newFileSystem(corrupt, env);
+		try {
+			Files.readAllBytes(fs.getPath("/a.txt"));
+			fail();
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith("Bad checksum"));
+		} finally {
+			fs.close();
+		}
+	}
+
+	private URI uri(String path) {
+		return URI.create("cab:" + cab.toURI() + "!" + path);
+	}
+
+	private static FileSystemProvider provider() {
+		for (FileSystemProvider p : FileSystemProvider.installedProviders()) {
+			if (p.getScheme().equals("cab")) {
+				return p;
+			}
+		}
+		throw new AssertionError("cab provider not installed");
+	}
+}
@@ -0,0 +1,194 @@
+/*
+  Copyright [2009] [allenhooo at gmail dot com]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.google.code.cabinet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.GregorianCalendar;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CabinetWriterTest {
+	/** 2009-12-24 12:00:00 local time, even seconds survive the MS-DOS time stamp */
+	private static final long TIME = new GregorianCalendar(2009, 11, 24, 12, 0, 0).getTimeInMillis();
+
+	private static final String[] NAMES = { "a.txt", "dir\\random.bin", "dir\\text.txt", "empty",
+			"dir\\été.txt", "z.bin" };
+	/** compression of every file: two stored folders around an MSZIP one */
+	private static final int[] COMPRESSION = { CabinetWriter.STORED, CabinetWriter.STORED,
+			CabinetWriter.MSZIP, CabinetWriter.MSZIP, CabinetWriter.MSZIP, CabinetWriter.STORED };
+	private static final int[] FOLDER = { 0, 0, 1, 1, 1, 2 };
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	private byte[][] contents;
+	private ExecutorService pool;
+
+	@Before
+	public void setUp() {
+		Random r = new Random(1);
+		// random bytes do not compress, MSZIP stores them in deflate blocks of their own
+		byte[] random = new byte[100000];
+		r.nextBytes(random);
+		contents = new byte[][] { text(r, 1000), random, text(r, 70000), new byte[0], text(r, 40000), text(r, 5) };
+		pool = Executors.newFixedThreadPool(4);
+	}
+
+	@After
+	public void tearDown() {
+		pool.shutdown();
+	}
+
+	@Test
+	public void readBack() throws IOException {
+		File f = write(pool);
+		CabinetReader r = new CabinetReader(f);
+		try {
+			r.setVerifyChecksums(true);
+			assertArrayEquals(NAMES, r.getFileNames());
+			assertEquals(3, r.getFolderCount());
+			for (int i = 0; i < NAMES.length; i++) {
+				assertArrayEquals(NAMES[i], contents[i], Fixtures.read(r, NAMES[i]));
+			}
+		} finally {
+			r.close();
+		}
+	}
+
+	@Test
+	public void directory() throws IOException {
+		CabinetDirectory d = new CabinetDirectory(write(pool));
+		assertEquals(NAMES.length, d.size());
+		assertEquals(3, d.getFolderCount());
+		long offset = 0;
+		for (int i = 0; i < NAMES.length; i++) {
+			assertEquals(NAMES[i], d.getName(i));
+			assertEquals(contents[i].length, d.getSize(i));
+			assertEquals(FOLDER[i], d.getFolder(i));
+			if (i > 0 && FOLDER[i] != FOLDER[i - 1]) {
+				offset = 0;
+			}
+			assertEquals(offset, d.getFolderOffset(i));
+			offset += contents[i].length;
+			assertEquals(TIME, d.getTime(i));
+			int utf = i == 4 ? CabFile.NAME_IS_UTF : 0;
+			assertEquals(CabFile.ARCH | utf, d.getAttributes(i));
+		}
+	}
+
+	/**
+	 * The blocks are compressed out of order on the pool, but each refers back to the one before.
+	 */
+	@Test
+	public void sameOnOneThread() throws IOException {
+		assertArrayEquals(Fixtures.read(write(null)), Fixtures.read(write(pool)));
+	}
+
+	@Test
+	public void everyBlockChecksummed() throws IOException {
+		ByteBuffer b = ByteBuffer.wrap(Fixtures.read(write(pool))).order(ByteOrder.LITTLE_ENDIAN);
+		int folders = b.getShort(26) & 0xFFFF;
+		int blocks = 0;
+		for (int i = 0; i < folders; i++) {
+			int p = b.getInt(36 + 8 * i);
+			int n = b.getShort(36 + 8 * i + 4) & 0xFFFF;
+			for (int k = 0; k < n; k++) {
+				int csum = b.getInt(p);
+				int cbData = b.getShort(p + 4) & 0xFFFF;
+				int cbUncomp = b.getShort(p + 6) & 0xFFFF;
+				assertTrue(csum != 0);
+				assertEquals(csum, CabData.checksum(b, p + 8, cbData, 0) ^ (cbData | cbUncomp << 16));
+				p += 8 + cbData;
+				blocks++;
+			}
+		}
+		// 101000 stored bytes, 110000 MSZIP bytes and 5 stored bytes
+		assertEquals(4 + 4 + 1, blocks);
+	}
+
+	@Test
+	public void addFile() throws IOException {
+		File src = tmp.newFile();
+		Fixtures.write(src, contents[1]);
+		File f = tmp.newFile();
+		CabinetWriter w = new CabinetWriter(f, pool);
+		try {
+			w.addFile("random.bin", src);
+		} finally {
+			w.close();
+		}
+		CabinetReader r = new CabinetReader(f);
+		try {
+			r.setVerifyChecksums(true);
+			assertArrayEquals(contents[1], Fixtures.read(r, "random.bin"));
+		} finally {
+			r.close();
+		}
+		// the spool file is gone
+		for (File x : f.getParentFile().listFiles()) {
+			assertTrue(x.getName(), x.equals(f) || x.equals(src));
+		}
+	}
+
+	private File write(ExecutorService executor) throws IOException {
+		File f = tmp.newFile();
+		CabinetWriter w = new CabinetWriter(f, executor);
+		try {
+			for (int i = 0; i < NAMES.length; i++) {
+				w.setCompression(COMPRESSION[i]);
+				w.putNextEntry(NAMES[i], TIME, CabFile.ARCH);
+				// in pieces, some across a block boundary
+				byte[] b = contents[i];
+				for (int off = 0; off < b.length; off += 7919) {
+					w.write(b, off, Math.min(7919, b.length - off));
+				}
+			}
+		} finally {
+			w.close();
+		}
+		return f;
+	}
+
+	/**
+	 * Words of a small vocabulary, which MSZIP compresses well.
+	 */
+	private static byte[] text(Random r, int length) {
+		String[] words = { "cabinet", "folder", "block", "file", "data", "window", "the", "of" };
+		StringBuilder sb = new StringBuilder();
+		while (sb.length() < length) {
+			sb.append(words[r.nextInt(words.length)]).append(' ');
+		}
+		byte[] b = new byte[length];
+		for (int i = 0; i < length; i++) {
+			b[i] = (byte) sb.charAt(i);
+		}
+		return b;
+	}
+}
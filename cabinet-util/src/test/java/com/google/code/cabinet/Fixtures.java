@@ -0,0 +1,134 @@
+/*
+  Copyright [2009] [allenhooo at gmail dot com]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.google.code.cabinet;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.URISyntaxException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The test cabs and the files they hold.<p>
+ * Most fixtures hold the same five files in one folder: a.txt (1000 bytes), dir\b.txt (40000),
+ * dir\sub\c.bin (5), d.txt (30000) and empty, 71005 bytes or three data blocks in all.
+ * dir\b.txt crosses the first block boundary.
+ * <ul>
+ * <li>lzx15.cab: LZX, 32K window, verbatim and aligned blocks</li>
+ * <li>lzx21v.cab: LZX, 2M window, verbatim blocks</li>
+ * <li>lzx16a.cab: LZX, 64K window, aligned blocks of 3000 bytes, which do not line up with the data blocks</li>
+ * <li>lzx3.cab: LZX, uncompressed blocks</li>
+ * <li>lzxe8.cab: LZX with E8 call translation, x.exe (20000 bytes of 0xE8 rich data) ahead of the five files</li>
+ * <li>qtm15.cab: Quantum, 32K window</li>
+ * <li>qtm10.cab: Quantum, 1K window, x.bin (the bytes of x.exe) after the five files</li>
+ * <li>span1.cab, span2.cab: MSZIP, the folder over two cabinets with the second data block split between them</li>
+ * </ul>
+ */
+class Fixtures {
+	/** MD5 of every file, in the order of the five files */
+	static final Map<String, String> FILES = new LinkedHashMap<String, String>();
+	static {
+		FILES.put("a.txt", "ff1f07481aefeed3eb519266963a2ba5");
+		FILES.put("dir\\b.txt", "1e00f1f158557288e8c7d76c1e11cc6f");
+		FILES.put("dir\\sub\\c.bin", "bf957698184fef13a6f0b4bc73cb46c0");
+		FILES.put("d.txt", "62ea6e1df877d901dbff168e0b3c9d38");
+		FILES.put("empty", "d41d8cd98f00b204e9800998ecf8427e");
+	}
+	/** MD5 of x.exe in lzxe8.cab and x.bin in qtm10.cab */
+	static final String X = "c70c8371c289da11c844e7559bd2b936";
+
+	private Fixtures() {
+	}
+
+	static File file(String name) {
+		try {
+			return new File(Fixtures.class.getResource(name).toURI());
+		} catch (URISyntaxException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static byte[] read(File f) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(f, "r");
+		try {
+			byte[] b = new byte[(int) in.length()];
+			in.readFully(b);
+			return b;
+		} finally {
+			in.close();
+		}
+	}
+
+	static void write(File f, byte[] b) throws IOException {
+		FileOutputStream out = new FileOutputStream(f);
+		try {
+			out.write(b);
+		} finally {
+			out.close();
+		}
+	}
+
+	static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		// an odd size, so reads end inside blocks
+		byte[] b = new byte[7919];
+		int n;
+		while ((n = in.read(b, 0, b.length)) > 0) {
+			out.write(b, 0, n);
+		}
+		return out.toByteArray();
+	}
+
+	static byte[] read(CabinetReader reader, String name) throws IOException {
+		InputStream in = reader.getFileInputStream(name);
+		try {
+			return readAll(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	static String md5(byte[] b) {
+		try {
+			StringBuilder sb = new StringBuilder();
+			for (byte x : MessageDigest.getInstance("MD5").digest(b)) {
+				sb.append(String.format("%02x", x & 0xFF));
+			}
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Check every file of the reader against its MD5.
+	 */
+	static void check(CabinetReader reader, Map<String, String> expected) throws IOException {
+		String[] names = reader.getFileNames();
+		assertEquals(expected.size(), names.length);
+		for (String name : names) {
+			assertEquals(name, expected.get(name), md5(read(reader, name)));
+		}
+	}
+}
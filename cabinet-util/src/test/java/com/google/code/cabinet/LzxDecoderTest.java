@@ -0,0 +1,163 @@
+/*
+  Copyright [2009] [allenhooo at gmail dot com]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.google.code.cabinet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LzxDecoderTest {
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	@Test
+	public void verbatimAndAligned() throws IOException {
+		check("lzx15.cab", Fixtures.FILES);
+	}
+
+	@Test
+	public void verbatimLargeWindow() throws IOException {
+		check("lzx21v.cab", Fixtures.FILES);
+	}
+
+	@Test
+	public void alignedAcrossDataBlocks() throws IOException {
+		check("lzx16a.cab", Fixtures.FILES);
+	}
+
+	@Test
+	public void uncompressed() throws IOException {
+		check("lzx3.cab", Fixtures.FILES);
+	}
+
+	@Test
+	public void e8Translation() throws IOException {
+		check("lzxe8.cab", withX("x.exe"));
+	}
+
+	@Test
+	public void verifyChecksums() throws IOException {
+		CabinetReader r = new CabinetReader(Fixtures.file("lzx16a.cab"));
+		try {
+			r.setVerifyChecksums(true);
+			Fixtures.check(r, Fixtures.FILES);
+		} finally {
+			r.close();
+		}
+	}
+
+	/**
+	 * dir\b.txt starts at 1000 in the folder, the first block ends 31768 bytes into it.
+	 */
+	@Test
+	public void seekAcrossBlockBoundary() throws IOException {
+		for (String cab : new String[] { "lzx15.cab", "lzx16a.cab", "lzx3.cab" }) {
+			CabinetReader r = new CabinetReader(Fixtures.file(cab));
+			try {
+				r.setBlockCacheSize(0);
+				byte[] all = Fixtures.read(r, "dir\\b.txt");
+				for (int p : new int[] { 31767, 31768, 31000, 39999, 0 }) {
+					CabinetInputStream in = (CabinetInputStream) r.getFileInputStream("dir\\b.txt");
+					in.seek(p);
+					assertArrayEquals(cab + " @" + p, Arrays.copyOfRange(all, p, all.length), Fixtures.readAll(in));
+					in.close();
+				}
+			} finally {
+				r.close();
+			}
+		}
+	}
+
+	/**
+	 * Reading d.txt records a checkpoint before every block, seeks then resume from them.
+	 */
+	@Test
+	public void seekFromCheckpoints() throws IOException {
+		for (String cab : new String[] { "lzx15.cab", "lzx21v.cab", "lzx16a.cab", "lzxe8.cab" }) {
+			CabinetReader r = new CabinetReader(Fixtures.file(cab));
+			try {
+				r.setBlockCacheSize(0);
+				r.setCheckpointInterval(1);
+				byte[] all = Fixtures.read(r, "d.txt");
+				assertEquals(Fixtures.FILES.get("d.txt"), Fixtures.md5(all));
+				for (int p : new int[] { 29999, 25000, 1000, 0, 20000 }) {
+					CabinetInputStream in = (CabinetInputStream) r.getFileInputStream("d.txt");
+					in.seek(p);
+					assertArrayEquals(cab + " @" + p, Arrays.copyOfRange(all, p, all.length), Fixtures.readAll(in));
+					in.close();
+				}
+				Fixtures.check(r, cab.equals("lzxe8.cab") ? withX("x.exe") : Fixtures.FILES);
+			} finally {
+				r.close();
+			}
+		}
+	}
+
+	/**
+	 * R0, R1 and R2 of an uncompressed block must lie inside the window.
+	 */
+	@Test
+	public void badRepeatedOffset() throws IOException {
+		byte[] cab = Fixtures.read(Fixtures.file("lzx3.cab"));
+		ByteBuffer b = ByteBuffer.wrap(cab).order(ByteOrder.LITTLE_ENDIAN);
+		// the block header and the E8 bit take 28 bits, R0 follows at the next 16 bit boundary
+		int r0 = b.getInt(36) + 8 + 4;
+		for (int bad : new int[] { 0, (1 << 15) + 1, -1 }) {
+			b.putInt(r0, bad);
+			File f = tmp.newFile();
+			Fixtures.write(f, cab);
+			CabinetReader r = new CabinetReader(f);
+			try {
+				InputStream in = r.getFileInputStream("a.txt");
+				in.read(new byte[1000]);
+				fail("R0 " + bad);
+			} catch (IOException e) {
+				assertEquals("Bad file format", e.getMessage());
+			} finally {
+				r.close();
+			}
+		}
+	}
+
+	private static Map<String, String> withX(String name) {
+		Map<String, String> expected = new LinkedHashMap<String, String>();
+		expected.put(name, Fixtures.X);
+		expected.putAll(Fixtures.FILES);
+		return expected;
+	}
+
+	private static void check(String cab, Map<String, String> expected) throws IOException {
+		CabinetReader r = new CabinetReader(Fixtures.file(cab));
+		try {
+			Fixtures.check(r, expected);
+		} finally {
+			r.close();
+		}
+	}
+}
@@ -0,0 +1,95 @@
+/*
+  Copyright [2009] [allenhooo at gmail dot com]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.google.code.cabinet;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class QuantumDecoderTest {
+	@Test
+	public void window32k() throws IOException {
+		CabinetReader r = new CabinetReader(Fixtures.file("qtm15.cab"));
+		try {
+			r.setVerifyChecksums(true);
+			Fixtures.check(r, Fixtures.FILES);
+		} finally {
+			r.close();
+		}
+	}
+
+	/**
+	 * A 1K window is smaller than a frame, matches wrap around it many times a block.
+	 */
+	@Test
+	public void window1k() throws IOException {
+		CabinetReader r = new CabinetReader(Fixtures.file("qtm10.cab"));
+		try {
+			Fixtures.check(r, withX());
+		} finally {
+			r.close();
+		}
+	}
+
+	@Test
+	public void seekAcrossBlockBoundary() throws IOException {
+		for (String cab : new String[] { "qtm15.cab", "qtm10.cab" }) {
+			CabinetReader r = new CabinetReader(Fixtures.file(cab));
+			try {
+				r.setBlockCacheSize(0);
+				byte[] all = Fixtures.read(r, "dir\\b.txt");
+				for (int p : new int[] { 31767, 31768, 39999, 0 }) {
+					CabinetInputStream in = (CabinetInputStream) r.getFileInputStream("dir\\b.txt");
+					in.seek(p);
+					assertArrayEquals(cab + " @" + p, Arrays.copyOfRange(all, p, all.length), Fixtures.readAll(in));
+					in.close();
+				}
+			} finally {
+				r.close();
+			}
+		}
+	}
+
+	@Test
+	public void seekFromCheckpoints() throws IOException {
+		CabinetReader r = new CabinetReader(Fixtures.file("qtm10.cab"));
+		try {
+			r.setBlockCacheSize(0);
+			r.setCheckpointInterval(1);
+			byte[] all = Fixtures.read(r, "x.bin");
+			for (int p : new int[] { 19999, 15000, 0, 10000 }) {
+				CabinetInputStream in = (CabinetInputStream) r.getFileInputStream("x.bin");
+				in.seek(p);
+				assertArrayEquals("@" + p, Arrays.copyOfRange(all, p, all.length), Fixtures.readAll(in));
+				in.close();
+			}
+			Fixtures.check(r, withX());
+		} finally {
+			r.close();
+		}
+	}
+
+	private static Map<String, String> withX() {
+		Map<String, String> expected = new LinkedHashMap<String, String>(Fixtures.FILES);
+		expected.put("x.bin", Fixtures.X);
+		return expected;
+	}
+}
@@ -0,0 +1,158 @@
+/*
+  Copyright [2009] [allenhooo at gmail dot com]
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.google.code.cabinet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * span1.cab and span2.cab: one MSZIP folder over two cabinets. The second data block is
+ * split between them, dir\b.txt runs from the first cabinet into the second.
+ */
+public class SpannedCabinetTest {
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	@Test
+	public void wholeSet() throws IOException {
+		copy("span1.cab");
+		copy("span2.cab");
+		for (String cab : new String[] { "span1.cab", "span2.cab" }) {
+			CabinetReader r = new CabinetReader(new File(tmp.getRoot(), cab));
+			try {
+				r.setVerifyChecksums(true);
+				assertEquals(2, r.getVolumes().length);
+				assertEquals(1, r.getFolderCount());
+				Fixtures.check(r, Fixtures.FILES);
+			} finally {
+				r.close();
+			}
+		}
+	}
+
+	/**
+	 * Seek around the block split between the cabinets, 31768 bytes into dir\b.txt.
+	 */
+	@Test
+	public void seekAcrossVolumes() throws IOException {
+		copy("span1.cab");
+		copy("span2.cab");
+		CabinetReader r = new CabinetReader(new File(tmp.getRoot(), "span1.cab"));
+		try {
+			r.setBlockCacheSize(0);
+			byte[] all = Fixtures.read(r, "dir\\b.txt");
+			for (int p : new int[] { 39999, 31768, 31767, 0 }) {
+				CabinetInputStream in = (CabinetInputStream) r.getFileInputStream("dir\\b.txt");
+				in.seek(p);
+				assertArrayEquals("@" + p, Arrays.copyOfRange(all, p, all.length), Fixtures.readAll(in));
+				in.close();
+			}
+			CabinetFolderInputStream in = r.getFolderInputStream(0);
+			try {
+				CabinetEntry e;
+				while ((e = in.getNextEntry()) != null) {
+					assertEquals(e.getName(), Fixtures.FILES.get(e.getName()), Fixtures.md5(Fixtures.readAll(in)));
+				}
+			} finally {
+				in.close();
+			}
+		} finally {
+			r.close();
+		}
+	}
+
+	/**
+	 * Without span2.cab the files of span1.cab up to the split block can still be read.
+	 */
+	@Test
+	public void missingNextVolume() throws IOException {
+		copy("span1.cab");
+		CabinetReader r = new CabinetReader(new File(tmp.getRoot(), "span1.cab"));
+		try {
+			assertEquals(1, r.getVolumes().length);
+			assertEquals(Fixtures.FILES.get("a.txt"), Fixtures.md5(Fixtures.read(r, "a.txt")));
+			InputStream in = r.getFileInputStream("dir\\b.txt");
+			try {
+				Fixtures.readAll(in);
+				fail();
+			} catch (IOException e) {
+				assertEquals("Cabinet span2.cab not found", e.getMessage());
+			} finally {
+				in.close();
+			}
+			CabinetFolderInputStream folder = r.getFolderInputStream(0);
+			try {
+				folder.getNextEntry();
+				Fixtures.readAll(folder);
+				folder.getNextEntry();
+				Fixtures.readAll(folder);
+				fail();
+			} catch (IOException e) {
+				assertEquals("Cabinet span2.cab not found", e.getMessage());
+			} finally {
+				folder.close();
+			}
+		} finally {
+			r.close();
+		}
+	}
+
+	/**
+	 * Without span1.cab the folder cannot be decoded at all.
+	 */
+	@Test
+	public void missingPrevVolume() throws IOException {
+		copy("span2.cab");
+		CabinetReader r = new CabinetReader(new File(tmp.getRoot(), "span2.cab"));
+		try {
+			assertEquals(1, r.getVolumes().length);
+			for (String name : r.getFileNames()) {
+				try {
+					r.getFileInputStream(name);
+					fail(name);
+				} catch (IOException e) {
+					assertEquals("Cabinet span1.cab not found", e.getMessage());
+				}
+			}
+			CabinetFolderInputStream folder = r.getFolderInputStream(0);
+			try {
+				folder.getNextEntry();
+				folder.read();
+				fail();
+			} catch (IOException e) {
+				assertEquals("Cabinet span1.cab not found", e.getMessage());
+			} finally {
+				folder.close();
+			}
+		} finally {
+			r.close();
+		}
+	}
+
+	private void copy(String name) throws IOException {
+		Fixtures.write(new File(tmp.getRoot(), name), Fixtures.read(Fixtures.file(name)));
+	}
+}